@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.LinearGradient
+import android.graphics.Paint
+import android.graphics.Shader
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import ar.com.wolox.wolmo.core.util.WolmoFileProvider.ImageType
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+
+/**
+ * Compares the encode time and output size of every [ImageType] over a fixed corpus of
+ * synthetic images. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class ImageFormatBenchmark {
+
+    private val corpus: Map<String, Bitmap> by lazy {
+        mapOf("photo" to photo(), "gradient" to gradient(), "flat" to flat())
+    }
+
+    @Test
+    fun encodeEveryFormat() {
+        val output = ByteArrayOutputStream()
+        ImageType.values().filter { it.isEncodingSupported }.forEach { type ->
+            corpus.forEach { (name, bitmap) ->
+                QUALITIES.forEach { quality ->
+                    val times = LongArray(ITERATIONS) {
+                        output.reset()
+                        val start = System.nanoTime()
+                        assertThat(ImageProvider.compress(bitmap, type, quality, output)).isTrue()
+                        System.nanoTime() - start
+                    }
+                    times.sort()
+                    Log.i(TAG, "$type $name q$quality: ${output.size()} bytes, " +
+                        "median ${times[ITERATIONS / 2] / NANOS_PER_MILLI} ms")
+                }
+            }
+        }
+    }
+
+    /** Noisy image, similar to a camera photo. */
+    private fun photo() = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888).apply {
+        val random = Random(SEED)
+        val pixels = IntArray(WIDTH * HEIGHT) {
+            val base = (it % WIDTH) * 255 / WIDTH
+            val noise = random.nextInt(NOISE)
+            Color.rgb((base + noise).coerceAtMost(255), (255 - base + noise).coerceAtMost(255), noise * 4)
+        }
+        setPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT)
+    }
+
+    private fun gradient() = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888).apply {
+        val paint = Paint().apply {
+            shader = LinearGradient(0f, 0f, WIDTH.toFloat(), HEIGHT.toFloat(), Color.BLUE, Color.YELLOW, Shader.TileMode.CLAMP)
+        }
+        Canvas(this).drawPaint(paint)
+    }
+
+    /** Few flat colors, similar to a screenshot or an illustration. */
+    private fun flat() = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888).apply {
+        val canvas = Canvas(this)
+        canvas.drawColor(Color.WHITE)
+        val paint = Paint()
+        listOf(Color.RED, Color.GREEN, Color.BLUE, Color.BLACK).forEachIndexed { index, color ->
+            paint.color = color
+            canvas.drawRect(index * 200f, index * 150f, index * 200f + 300f, index * 150f + 200f, paint)
+        }
+    }
+
+    companion object {
+        private const val TAG = "ImageFormatBenchmark"
+        private const val WIDTH = 1024
+        private const val HEIGHT = 768
+        private const val SEED = 42
+        private const val NOISE = 48
+        private const val ITERATIONS = 5
+        private const val NANOS_PER_MILLI = 1_000_000
+        private val QUALITIES = listOf(50, 80, 100)
+    }
+}
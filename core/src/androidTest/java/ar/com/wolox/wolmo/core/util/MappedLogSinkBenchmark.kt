@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Measures the throughput, in records per second, of a [MappedLogSink] against a
+ * [RollingFileSink] writing the same records. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class MappedLogSinkBenchmark {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        directory = File(context.cacheDir, "log-benchmark").apply { deleteRecursively() }
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun mappedAndRollingFileThroughput() {
+        val records = List(DISTINCT_RECORDS) {
+            LogRecord(Log.INFO, "Tag${it % TAG_COUNT}", "Loaded $it items in ${it * 3} ms", null, System.currentTimeMillis(), "main")
+        }
+        measure("mapped", MappedLogSink(File(directory, "mapped")), records)
+        measure("rolling file", RollingFileSink(File(directory, "rolling"), SEGMENT_BYTES.toLong()), records)
+    }
+
+    private fun measure(name: String, sink: LogSink, records: List<LogRecord>) {
+        repeat(WARM_UP_RECORDS) { sink.write(records[it % records.size]) }
+        val start = System.nanoTime()
+        for (index in 0 until RECORDS) {
+            sink.write(records[index % records.size])
+        }
+        sink.flush()
+        val elapsed = System.nanoTime() - start
+        sink.close()
+        Log.i(TAG, "$name: ${RECORDS * 1_000_000_000L / elapsed} records per second")
+    }
+
+    companion object {
+        private const val TAG = "MappedLogSinkBenchmark"
+        private const val DISTINCT_RECORDS = 1000
+        private const val TAG_COUNT = 8
+        private const val WARM_UP_RECORDS = 10_000
+        private const val RECORDS = 200_000
+        private const val SEGMENT_BYTES = 256 * 1024
+    }
+}
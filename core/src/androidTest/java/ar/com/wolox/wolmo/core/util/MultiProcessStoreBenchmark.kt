@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import android.util.Log
+import androidx.datastore.core.DataStore
+import androidx.datastore.preferences.core.PreferenceDataStoreFactory
+import androidx.datastore.preferences.core.Preferences
+import androidx.datastore.preferences.core.edit
+import androidx.datastore.preferences.core.intPreferencesKey
+import androidx.datastore.preferences.preferencesDataStoreFile
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures the read and write latency of a [MultiProcessPreferencesStore] against the single
+ * process DataStore, and how long a change takes to reach another store of the same file.
+ * That store only shares the file, as a store of another process would, and is notified by
+ * its [android.os.FileObserver]. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class MultiProcessStoreBenchmark {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        listOf(SINGLE_PROCESS, MULTI_PROCESS).forEach { context.preferencesDataStoreFile(it).delete() }
+    }
+
+    @Test
+    fun readAndWrite() = runBlocking {
+        val singleProcess = PreferenceDataStoreFactory.create(scope = scope) {
+            context.preferencesDataStoreFile(SINGLE_PROCESS)
+        }
+        val multiProcess = MultiProcessPreferencesStore(context.preferencesDataStoreFile(MULTI_PROCESS))
+
+        measure("single process", singleProcess)
+        measure("multi process", multiProcess)
+    }
+
+    @Test
+    fun changeNotification() = runBlocking {
+        val file = context.preferencesDataStoreFile(MULTI_PROCESS)
+        val writer = MultiProcessPreferencesStore(file)
+        val reader = MultiProcessPreferencesStore(file)
+        val values = Channel<Int?>(Channel.UNLIMITED)
+        val collector = scope.launch { reader.data.collect { values.send(it[COUNTER]) } }
+        values.receive()
+
+        val times = LongArray(ITERATIONS / 10) { iteration ->
+            val start = System.nanoTime()
+            writer.edit { it[COUNTER] = iteration }
+            withTimeout(TIMEOUT) {
+                while (values.receive() != iteration) continue
+            }
+            System.nanoTime() - start
+        }
+        collector.cancel()
+        log("change notification", times)
+    }
+
+    private suspend fun measure(name: String, store: DataStore<Preferences>) {
+        val writes = LongArray(ITERATIONS) { iteration ->
+            val start = System.nanoTime()
+            store.edit { it[COUNTER] = iteration }
+            System.nanoTime() - start
+        }
+        val reads = LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            store.data.first()
+            System.nanoTime() - start
+        }
+        log("$name write", writes)
+        log("$name read", reads)
+    }
+
+    private fun log(name: String, times: LongArray) {
+        times.sort()
+        Log.i(TAG, "$name: median ${times[times.size / 2] / NANOS_PER_MICRO} us, " +
+            "p90 ${times[times.size * 9 / 10] / NANOS_PER_MICRO} us")
+    }
+
+    companion object {
+        private const val TAG = "MultiProcessBenchmark"
+        private const val SINGLE_PROCESS = "benchmark_single_process"
+        private const val MULTI_PROCESS = "benchmark_multi_process"
+        private const val ITERATIONS = 200
+        private const val TIMEOUT = 5000L
+        private const val NANOS_PER_MICRO = 1_000
+        private val COUNTER = intPreferencesKey("counter")
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * Compares the size and decode time of an object stored as a [BinaryRecord] against the
+ * same object stored as a JSON string. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class ObjectStoreBenchmark {
+
+    private val fields = List(FIELD_COUNT) { BinaryRecord.Field(it, BinaryCodecs.STRING) }
+    private val history = BinaryRecord.Field(FIELD_COUNT, BinaryCodecs.listOf(BinaryCodecs.LONG))
+    private val values = List(FIELD_COUNT) { "value of the field number $it" }
+    private val historyValues = List(HISTORY_SIZE) { 1_600_000_000_000L + it * 1000L }
+
+    @Test
+    fun decodeRecordAndJson() {
+        val record = BinaryRecord.build {
+            fields.forEachIndexed { index, field -> set(field, values[index]) }
+            set(history, historyValues)
+        }
+        val recordBytes = ByteArrayOutputStream().also {
+            BinaryRecord.CODEC.write(record, DataOutputStream(it))
+        }.toByteArray()
+        val json = JSONObject().apply {
+            values.forEachIndexed { index, value -> put("field$index", value) }
+            put("history", JSONArray(historyValues))
+        }.toString()
+
+        Log.i(TAG, "Size: record ${recordBytes.size} bytes, json ${json.toByteArray().size} bytes")
+        measure("record, one field") { decode(recordBytes)[fields[0]] }
+        measure("record, every field") {
+            val decoded = decode(recordBytes)
+            fields.forEach { decoded[it] }
+            decoded[history]
+        }
+        measure("json, one field") { JSONObject(json).getString("field0") }
+    }
+
+    private fun decode(bytes: ByteArray) = BinaryRecord.CODEC.read(DataInputStream(ByteArrayInputStream(bytes)))
+
+    private fun measure(name: String, block: () -> Any?) {
+        repeat(WARM_UP_ITERATIONS) { block() }
+        val times = LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            block()
+            System.nanoTime() - start
+        }
+        times.sort()
+        Log.i(TAG, "$name: median ${times[ITERATIONS / 2] / NANOS_PER_MICRO} us")
+    }
+
+    companion object {
+        private const val TAG = "ObjectStoreBenchmark"
+        private const val FIELD_COUNT = 30
+        private const val HISTORY_SIZE = 200
+        private const val WARM_UP_ITERATIONS = 50
+        private const val ITERATIONS = 500
+        private const val NANOS_PER_MICRO = 1_000
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures the cost of injecting a [WolmoFileProvider], which is what an activity pays on
+ * creation, against injecting it and setting up its cache folder right away, which is what
+ * the injection used to cost. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class WolmoFileProviderStartupBenchmark {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val uriResolver = UriResolver(context)
+
+    @Test
+    fun injection() {
+        measure("injection") { WolmoFileProvider(context, uriResolver) }
+        measure("injection with eager setup") { WolmoFileProvider(context, uriResolver).getCacheDirectory() }
+    }
+
+    private fun measure(name: String, block: () -> Any) {
+        repeat(WARM_UP_ITERATIONS) { block() }
+        val times = LongArray(ITERATIONS) {
+            val start = System.nanoTime()
+            block()
+            System.nanoTime() - start
+        }
+        times.sort()
+        Log.i(TAG, "$name: median ${times[ITERATIONS / 2] / NANOS_PER_MICRO} us, " +
+            "p90 ${times[ITERATIONS * 9 / 10] / NANOS_PER_MICRO} us")
+    }
+
+    companion object {
+        private const val TAG = "FileProviderBenchmark"
+        private const val WARM_UP_ITERATIONS = 20
+        private const val ITERATIONS = 200
+        private const val NANOS_PER_MICRO = 1_000
+    }
+}
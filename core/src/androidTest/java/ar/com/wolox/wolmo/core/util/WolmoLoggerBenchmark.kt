@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures the cost of a [WolmoLogger] call below the [WolmoLogger.minLevel], with a message
+ * that would build a string, against one that is logged, and of a [TaggedLogger] call against
+ * a direct [Log] call. Results are logged with the [TAG] tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class WolmoLoggerBenchmark {
+
+    @After
+    fun tearDown() {
+        WolmoLogger.minLevel = Log.VERBOSE
+    }
+
+    @Test
+    fun disabledAndEnabledCalls() {
+        WolmoLogger.minLevel = Log.ASSERT
+        log("disabled call", DISABLED_ITERATIONS)
+        WolmoLogger.minLevel = Log.VERBOSE
+        log("enabled call", ENABLED_ITERATIONS)
+    }
+
+    @Test
+    fun taggedLoggerAndDirectLogCalls() {
+        val logger = WolmoLogger.forClass<WolmoLoggerBenchmark>()
+        measure("direct Log call") { Log.v(TAG, "Iteration $it of direct Log call") }
+        measure("tagged logger call") { logger.verbose { "Iteration $it of tagged logger call" } }
+    }
+
+    private inline fun measure(name: String, call: (Int) -> Unit) {
+        repeat(ENABLED_ITERATIONS / 10) { call(it) }
+        val start = System.nanoTime()
+        for (index in 0 until ENABLED_ITERATIONS) {
+            call(index)
+        }
+        Log.i(TAG, "$name: ${(System.nanoTime() - start) / ENABLED_ITERATIONS} ns per call")
+    }
+
+    private fun log(name: String, iterations: Int) {
+        repeat(iterations / 10) { WolmoLogger.verbose { "Warm up $it" } }
+        val start = System.nanoTime()
+        for (index in 0 until iterations) {
+            WolmoLogger.verbose { "Iteration $index of $name" }
+        }
+        Log.i(TAG, "$name: ${(System.nanoTime() - start) / iterations} ns per call")
+    }
+
+    companion object {
+        private const val TAG = "WolmoLoggerBenchmark"
+        private const val DISABLED_ITERATIONS = 10_000_000
+        private const val ENABLED_ITERATIONS = 10_000
+    }
+}
@@ -23,6 +23,17 @@ package ar.com.wolox.wolmo.core
 
 import android.app.Application
 import androidx.annotation.CallSuper
+import ar.com.wolox.wolmo.core.util.DataStoreManager
+import ar.com.wolox.wolmo.core.util.PreferencesPreloader
+import ar.com.wolox.wolmo.core.util.WolmoLogger
+import dagger.hilt.EntryPoint
+import dagger.hilt.InstallIn
+import dagger.hilt.android.EntryPointAccessors
+import dagger.hilt.components.SingletonComponent
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 
 /**
  * An extension of Android's native [Application] class that is intended to be used as
@@ -30,10 +41,49 @@ import androidx.annotation.CallSuper
  */
 abstract class WolmoApplication : Application() {
 
+    /**
+     * Names of the [android.content.SharedPreferences] files to load in background when the
+     * application is created, like the one provided to the
+     * [ar.com.wolox.wolmo.core.di.modules.ContextModule]. Empty by default.
+     */
+    protected open val preloadedPreferences: Set<String> = emptySet()
+
+    /**
+     * Whether to load the injected [DataStoreManager] store in background when the application
+     * is created. It needs the application to use Hilt.
+     */
+    protected open val preloadDataStore: Boolean = false
+
     @CallSuper
     override fun onCreate() {
         super.onCreate()
         onInit()
+        // After onInit, so the stores are opened with the settings it sets, like DataStoreManager.multiProcess
+        preload()
+    }
+
+    private fun preload() {
+        if (preloadedPreferences.isEmpty() && !preloadDataStore) return
+        // A failed preload only means the first read loads them, so it's not worth crashing
+        val exceptionHandler = CoroutineExceptionHandler { _, exception ->
+            logger.warn(exception) { "Preferences preload failed" }
+        }
+        CoroutineScope(SupervisorJob() + exceptionHandler).launch {
+            val dataStoreManager = if (preloadDataStore) findDataStoreManager() else null
+            PreferencesPreloader(this@WolmoApplication).preload(preloadedPreferences, dataStoreManager)
+        }
+    }
+
+    /**
+     * Returns the injected [DataStoreManager], or null if the application doesn't use Hilt, so
+     * the [preloadedPreferences] are still loaded.
+     */
+    private fun findDataStoreManager(): DataStoreManager? = try {
+        EntryPointAccessors.fromApplication(this, PreloadEntryPoint::class.java).dataStoreManager()
+    } catch (e: RuntimeException) {
+        // Thrown as IllegalStateException or ClassCastException when Hilt isn't set up
+        logger.warn(e) { "DataStore preload skipped, the application doesn't use Hilt" }
+        null
     }
 
     /**
@@ -42,4 +92,14 @@ abstract class WolmoApplication : Application() {
      */
     abstract fun onInit()
 
+    /** Gives the preload the injected singletons, so it doesn't open a second store. */
+    @EntryPoint
+    @InstallIn(SingletonComponent::class)
+    interface PreloadEntryPoint {
+        fun dataStoreManager(): DataStoreManager
+    }
+
+    companion object {
+        private val logger = WolmoLogger.forClass<WolmoApplication>()
+    }
 }
@@ -0,0 +1,31 @@
+package ar.com.wolox.wolmo.core.tests
+
+import ar.com.wolox.wolmo.core.util.AsyncLogPipeline
+import ar.com.wolox.wolmo.core.util.LogRecord
+import ar.com.wolox.wolmo.core.util.LogSink
+
+/**
+ * A [LogSink] that collects the records to assert on them. Call [AsyncLogPipeline.flush]
+ * before reading [records] to include every record logged so far.
+ */
+class TestLogSink : LogSink {
+
+    private val collected = ArrayList<LogRecord>()
+
+    /** The collected records, oldest first. */
+    val records: List<LogRecord>
+        get() = synchronized(collected) { collected.toList() }
+
+    /** The collected messages, oldest first. */
+    val messages: List<String>
+        get() = records.map { it.message }
+
+    override fun write(record: LogRecord) {
+        val detached = record.detach()
+        synchronized(collected) { collected.add(detached) }
+    }
+
+    fun clear() {
+        synchronized(collected) { collected.clear() }
+    }
+}
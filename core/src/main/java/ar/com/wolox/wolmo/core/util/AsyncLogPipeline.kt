@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import java.io.Closeable
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Hands the [LogRecord]s to the [sinks] in a background writer thread. Logging threads only
+ * add the record to a lock free queue of [capacity] records, so they never wait on I/O.
+ * When the queue is full, the [overflowPolicy] decides what to do with the new records.
+ * The sinks are flushed every time the queue is drained.
+ */
+class AsyncLogPipeline @JvmOverloads constructor(
+    sinks: List<LogSink>,
+    capacity: Int = DEFAULT_CAPACITY,
+    private val overflowPolicy: OverflowPolicy = OverflowPolicy.DROP_OLDEST,
+    private val sampleRate: Int = DEFAULT_SAMPLE_RATE
+) : Closeable {
+
+    enum class OverflowPolicy {
+
+        /** Discards the oldest queued records to make room for the new ones. */
+        DROP_OLDEST,
+
+        /**
+         * Makes the logging thread wait until there's room. Nothing is lost, but a slow sink
+         * slows down every thread that logs.
+         */
+        BLOCK,
+
+        /**
+         * Keeps one of every sampleRate records while the queue is more than three quarters
+         * full, and discards the new records while it's full.
+         */
+        SAMPLE
+    }
+
+    init {
+        require(sampleRate > 0) { "The sample rate must be positive" }
+    }
+
+    private val sinks = sinks.toList()
+    private val queue = BoundedLogQueue<LogRecord>(capacity)
+    private val highWaterMark = queue.capacity - queue.capacity / 4
+    private val dropped = AtomicLong()
+    private val sampled = AtomicLong()
+
+    @Volatile
+    private var closed = false
+
+    /** Whether the writer is about to park, the logging threads must wake it up. */
+    @Volatile
+    private var parked = false
+
+    /** Times the writer drained the queue and flushed the sinks. Written by the writer only. */
+    @Volatile
+    private var idleFlushes = 0L
+
+    private val writer = Thread({ drain() }, THREAD_NAME).apply {
+        isDaemon = true
+        start()
+    }
+
+    /** Number of records discarded by the [overflowPolicy] or because the pipeline is closed. */
+    val droppedRecords: Long
+        get() = dropped.get()
+
+    /**
+     * Queues the [record] to be written, returning whether it was queued. Its fields are
+     * recycled once it's written or dropped.
+     */
+    fun enqueue(record: LogRecord): Boolean {
+        val queued = !closed && when (overflowPolicy) {
+            OverflowPolicy.DROP_OLDEST -> offerDroppingOldest(record)
+            OverflowPolicy.BLOCK -> offerBlocking(record)
+            OverflowPolicy.SAMPLE -> offerSampled(record)
+        }
+        if (queued) {
+            if (parked) LockSupport.unpark(writer)
+            // The writer may have finished its last drain before the record got in
+            if (closed) discardLeftovers()
+        } else {
+            dropped.incrementAndGet()
+            record.fields?.recycle()
+        }
+        return queued
+    }
+
+    private fun offerDroppingOldest(record: LogRecord): Boolean {
+        while (!queue.offer(record)) {
+            queue.poll()?.let {
+                dropped.incrementAndGet()
+                it.fields?.recycle()
+            }
+        }
+        return true
+    }
+
+    private fun offerBlocking(record: LogRecord): Boolean {
+        // A sink logging from the writer would wait for itself
+        if (Thread.currentThread() === writer) return queue.offer(record)
+        while (!queue.offer(record)) {
+            if (closed || !writer.isAlive) return false
+            LockSupport.unpark(writer)
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS)
+        }
+        return true
+    }
+
+    private fun offerSampled(record: LogRecord): Boolean {
+        if (queue.size >= highWaterMark && sampled.incrementAndGet() % sampleRate != 0L) return false
+        return queue.offer(record)
+    }
+
+    /**
+     * Waits until every record queued before the call is written and the sinks are flushed.
+     * Does nothing if called from a sink or after [close].
+     */
+    fun flush() {
+        if (Thread.currentThread() === writer) return
+        // The first idle flush may have started before the last records were queued
+        val target = idleFlushes + 2
+        while (idleFlushes < target && writer.isAlive) {
+            LockSupport.unpark(writer)
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS)
+        }
+    }
+
+    /**
+     * Writes the queued records, closes the sinks and stops the writer. Records queued
+     * from then on are dropped.
+     */
+    override fun close() {
+        closed = true
+        LockSupport.unpark(writer)
+        discardLeftovers()
+    }
+
+    /** Drops the records left in the queue once the writer is gone. */
+    private fun discardLeftovers() {
+        if (Thread.currentThread() === writer) return
+        writer.join()
+        while (true) {
+            val record = queue.poll() ?: break
+            dropped.incrementAndGet()
+            record.fields?.recycle()
+        }
+    }
+
+    private fun drain() {
+        try {
+            writeUntilClosed()
+        } finally {
+            // Also when a sink throws an Error, so the logging threads stop queueing
+            closed = true
+            sinks.forEach { sink -> runSafely { sink.close() } }
+        }
+    }
+
+    private fun writeUntilClosed() {
+        while (true) {
+            val record = queue.poll()
+            if (record != null) {
+                sinks.forEach { sink -> runSafely { if (sink.accepts(record)) sink.write(record) } }
+                record.fields?.recycle()
+                continue
+            }
+            sinks.forEach { sink -> runSafely { sink.flush() } }
+            idleFlushes++
+            if (closed) break
+            parked = true
+            if (queue.size == 0 && !closed) LockSupport.parkNanos(this, IDLE_PARK_NANOS)
+            parked = false
+        }
+    }
+
+    /** A failing sink must not stop the writer or the other sinks. */
+    private inline fun runSafely(block: () -> Unit) {
+        try {
+            block()
+        } catch (e: Exception) {
+            // Nowhere to report it, the sink misses the record
+        }
+    }
+
+    companion object {
+        private const val THREAD_NAME = "WolmoLogWriter"
+        private const val DEFAULT_CAPACITY = 1024
+        private const val DEFAULT_SAMPLE_RATE = 10
+        private const val BLOCK_PARK_NANOS = 100_000L
+        private const val IDLE_PARK_NANOS = 1_000_000_000L
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.Serializer
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Compact binary encoding of values of type [T], used by the object stores of
+ * [DataStoreManager]. Implement it to store your own types, or use [BinaryRecord] to
+ * store objects whose fields are decoded only when read.
+ */
+interface BinaryCodec<T> {
+
+    /** Value of an empty store. */
+    val defaultValue: T
+
+    @Throws(IOException::class)
+    fun write(value: T, output: DataOutput)
+
+    @Throws(IOException::class)
+    fun read(input: DataInput): T
+}
+
+/**
+ * [BinaryCodec]s of the basic types. Integers, lengths and counts are written as
+ * variable-length integers, so small values take a single byte.
+ * Corrupted lengths and counts throw an [IOException] when read, like any other malformed input.
+ */
+object BinaryCodecs {
+
+    @JvmField
+    val INT: BinaryCodec<Int> = codec(0, { output, value -> output.writeVarLong(zigZag(value.toLong())) }) {
+        unZigZag(it.readVarLong()).toInt()
+    }
+
+    @JvmField
+    val LONG: BinaryCodec<Long> = codec(0L, { output, value -> output.writeVarLong(zigZag(value)) }) {
+        unZigZag(it.readVarLong())
+    }
+
+    @JvmField
+    val DOUBLE: BinaryCodec<Double> = codec(0.0, { output, value -> output.writeDouble(value) }, DataInput::readDouble)
+
+    @JvmField
+    val BOOLEAN: BinaryCodec<Boolean> =
+        codec(false, { output, value -> output.writeBoolean(value) }, DataInput::readBoolean)
+
+    @JvmField
+    val BYTES: BinaryCodec<ByteArray> = codec(ByteArray(0), { output, value ->
+        output.writeVarLong(value.size.toLong())
+        output.write(value)
+    }) {
+        it.readByteArray(it.readSize())
+    }
+
+    /** UTF-8 encoded. */
+    @JvmField
+    val STRING: BinaryCodec<String> = codec("", { output, value ->
+        BYTES.write(value.toByteArray(Charsets.UTF_8), output)
+    }) {
+        String(BYTES.read(it), Charsets.UTF_8)
+    }
+
+    /** Returns a codec of lists whose elements are encoded with the [element] codec. */
+    @JvmStatic
+    fun <T> listOf(element: BinaryCodec<T>): BinaryCodec<List<T>> = codec(emptyList(), { output, value ->
+        output.writeVarLong(value.size.toLong())
+        value.forEach { element.write(it, output) }
+    }) { input ->
+        val count = input.readSize()
+        // Grown as read, so a corrupted count fails on the end of the input instead of allocating it
+        ArrayList<T>(minOf(count, READ_CHUNK_SIZE)).apply { repeat(count) { add(element.read(input)) } }
+    }
+
+    /** Writes the unsigned [value] 7 bits per byte, with the high bit set on every byte but the last. */
+    @JvmStatic
+    fun DataOutput.writeVarLong(value: Long) {
+        var remaining = value
+        while (remaining and VAR_INT_DATA.inv() != 0L) {
+            writeByte(((remaining and VAR_INT_DATA) or VAR_INT_MORE).toInt())
+            remaining = remaining ushr VAR_INT_BITS
+        }
+        writeByte(remaining.toInt())
+    }
+
+    /** Reads a value written with [writeVarLong]. */
+    @JvmStatic
+    fun DataInput.readVarLong(): Long {
+        var value = 0L
+        var shift = 0
+        while (shift < Long.SIZE_BITS) {
+            val byte = readByte().toLong()
+            value = value or ((byte and VAR_INT_DATA) shl shift)
+            if (byte and VAR_INT_MORE == 0L) return value
+            shift += VAR_INT_BITS
+        }
+        throw IOException("Malformed variable-length integer")
+    }
+
+    /** Reads a length or a count written with [writeVarLong], throwing an [IOException] if it's malformed. */
+    @JvmStatic
+    fun DataInput.readSize(): Int {
+        val size = readVarLong()
+        if (size !in 0..MAX_SIZE) throw IOException("Malformed size: $size")
+        return size.toInt()
+    }
+
+    /**
+     * Reads [size] bytes. Big arrays are grown as read, so a corrupted [size] fails on the end
+     * of the input instead of allocating it.
+     */
+    private fun DataInput.readByteArray(size: Int): ByteArray {
+        if (size <= READ_CHUNK_SIZE) return ByteArray(size).also { readFully(it) }
+        val output = ByteArrayOutputStream(READ_CHUNK_SIZE)
+        val chunk = ByteArray(READ_CHUNK_SIZE)
+        var remaining = size
+        while (remaining > 0) {
+            val length = minOf(remaining, chunk.size)
+            readFully(chunk, 0, length)
+            output.write(chunk, 0, length)
+            remaining -= length
+        }
+        return output.toByteArray()
+    }
+
+    /** Maps signed values to unsigned ones, so small negative values are small too. */
+    private fun zigZag(value: Long) = (value shl 1) xor (value shr Long.SIZE_BITS - 1)
+
+    private fun unZigZag(value: Long) = (value ushr 1) xor -(value and 1)
+
+    private fun <T> codec(
+        default: T,
+        writer: (DataOutput, T) -> Unit,
+        reader: (DataInput) -> T
+    ) = object : BinaryCodec<T> {
+        override val defaultValue = default
+        override fun write(value: T, output: DataOutput) = writer(output, value)
+        override fun read(input: DataInput) = reader(input)
+    }
+
+    private const val VAR_INT_BITS = 7
+    private const val VAR_INT_DATA = 0x7FL
+    private const val VAR_INT_MORE = 0x80L
+
+    /** Biggest array the VM can allocate. */
+    private const val MAX_SIZE = Int.MAX_VALUE - 8L
+    private const val READ_CHUNK_SIZE = 8 * 1024
+}
+
+/** DataStore [Serializer] backed by a [BinaryCodec]. */
+internal class BinaryCodecSerializer<T>(private val codec: BinaryCodec<T>) : Serializer<T> {
+
+    override val defaultValue: T
+        get() = codec.defaultValue
+
+    override suspend fun readFrom(input: InputStream): T {
+        try {
+            return codec.read(DataInputStream(input.buffered()))
+        } catch (e: IOException) {
+            throw CorruptionException("Cannot read the object store", e)
+        }
+    }
+
+    override suspend fun writeTo(t: T, output: OutputStream) {
+        // Not closed, DataStore closes the output once it's synced
+        val dataOutput = DataOutputStream(output.buffered())
+        codec.write(t, dataOutput)
+        dataOutput.flush()
+    }
+}
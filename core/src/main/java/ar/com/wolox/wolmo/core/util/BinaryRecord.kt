@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import ar.com.wolox.wolmo.core.util.BinaryCodecs.readSize
+import ar.com.wolox.wolmo.core.util.BinaryCodecs.readVarLong
+import ar.com.wolox.wolmo.core.util.BinaryCodecs.writeVarLong
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Immutable object stored as a set of binary [Field]s. Reading a record only splits it in
+ * fields; each field is decoded the first time it's read, so reading one field of a big
+ * record doesn't pay for the rest. Store it with [DataStoreManager.objectStore] and [CODEC].
+ * ```
+ * val NAME = BinaryRecord.Field(1, BinaryCodecs.STRING)
+ * val record = BinaryRecord.build { set(NAME, "Wolmo") }
+ * record[NAME] // "Wolmo"
+ * ```
+ */
+class BinaryRecord private constructor(private val rawFields: Map<Int, ByteArray>) {
+
+    /** Field [id] of a record, with the [codec] of its values. Ids must be unique and not negative. */
+    class Field<T : Any>(val id: Int, val codec: BinaryCodec<T>)
+
+    private val decodedFields = ConcurrentHashMap<Int, Any>()
+
+    /** Ids of the fields with a value. */
+    val fieldIds: Set<Int>
+        get() = rawFields.keys
+
+    /** Returns the value of the [field], decoding it on the first read, or null if it has none. */
+    @Suppress("UNCHECKED_CAST")
+    operator fun <T : Any> get(field: Field<T>): T? {
+        decodedFields[field.id]?.let { return it as T }
+        val raw = rawFields[field.id] ?: return null
+        return field.codec.read(DataInputStream(ByteArrayInputStream(raw))).also { decodedFields[field.id] = it }
+    }
+
+    operator fun <T : Any> get(field: Field<T>, defValue: T): T = get(field) ?: defValue
+
+    operator fun contains(field: Field<*>) = rawFields.containsKey(field.id)
+
+    /** Returns a copy of this record with the changes of the [block]. Unchanged fields are not decoded. */
+    fun edit(block: Builder.() -> Unit): BinaryRecord = Builder(LinkedHashMap(rawFields)).apply(block).build()
+
+    override fun equals(other: Any?) = other is BinaryRecord && rawFields.keys == other.rawFields.keys &&
+        rawFields.all { (id, raw) -> raw.contentEquals(other.rawFields[id]) }
+
+    override fun hashCode() = rawFields.keys.hashCode()
+
+    /** Builds a [BinaryRecord], encoding each field as it's set. */
+    class Builder internal constructor(private val rawFields: MutableMap<Int, ByteArray>) {
+
+        private val buffer = ByteArrayOutputStream()
+        private val output = DataOutputStream(buffer)
+
+        operator fun <T : Any> set(field: Field<T>, value: T?) {
+            if (value == null) {
+                rawFields.remove(field.id)
+                return
+            }
+            buffer.reset()
+            field.codec.write(value, output)
+            output.flush()
+            rawFields[field.id] = buffer.toByteArray()
+        }
+
+        fun remove(field: Field<*>) {
+            rawFields.remove(field.id)
+        }
+
+        internal fun build() = BinaryRecord(rawFields)
+    }
+
+    companion object {
+
+        @JvmField
+        val EMPTY = BinaryRecord(emptyMap())
+
+        /**
+         * [BinaryCodec] of records. Each field is written as its id, its length and its
+         * encoded value, so fields are split without decoding them. The length and the value
+         * are written like [BinaryCodecs.BYTES].
+         */
+        @JvmField
+        val CODEC: BinaryCodec<BinaryRecord> = object : BinaryCodec<BinaryRecord> {
+
+            override val defaultValue = EMPTY
+
+            override fun write(value: BinaryRecord, output: DataOutput) {
+                output.writeVarLong(value.rawFields.size.toLong())
+                value.rawFields.forEach { (id, raw) ->
+                    output.writeVarLong(id.toLong())
+                    output.writeVarLong(raw.size.toLong())
+                    output.write(raw)
+                }
+            }
+
+            override fun read(input: DataInput): BinaryRecord {
+                val count = input.readSize()
+                // Not sized by the count, so a corrupted one fails on the end of the input instead
+                val rawFields = LinkedHashMap<Int, ByteArray>()
+                repeat(count) {
+                    val id = input.readVarLong()
+                    if (id !in 0..Int.MAX_VALUE) throw IOException("Malformed field id: $id")
+                    rawFields[id.toInt()] = BinaryCodecs.BYTES.read(input)
+                }
+                return BinaryRecord(rawFields)
+            }
+        }
+
+        /** Builds a new record with the fields set by the [block]. */
+        fun build(block: Builder.() -> Unit): BinaryRecord = EMPTY.edit(block)
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.os.Build
+import java.util.TreeMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Pool of mutable [Bitmap]s to be reused, through [Bitmap.reconfigure] and
+ * [android.graphics.BitmapFactory.Options.inBitmap], instead of allocating new ones.
+ * Bitmaps are bucketed by [Bitmap.Config] and allocation size and the least recently pooled
+ * ones are evicted (and recycled) once the pool holds more than [maxBytes].
+ */
+@Singleton
+class BitmapPool(private val maxBytes: Long) {
+
+    @Inject
+    constructor() : this(DEFAULT_MAX_BYTES)
+
+    private val buckets = HashMap<Bitmap.Config, TreeMap<Int, ArrayDeque<Bitmap>>>()
+
+    /** Pooled bitmaps in the order they were put, least recently pooled first. */
+    private val lru = LinkedHashSet<Bitmap>()
+
+    /** Bytes currently held by the pool. */
+    var currentBytes: Long = 0
+        private set
+
+    /**
+     * Returns a cleared bitmap of [width] x [height] and [config] reusing one of the pooled
+     * bitmaps, or null if none of them is big enough.
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        val bitmap = getDirty(width, height, config) ?: return null
+        bitmap.eraseColor(Color.TRANSPARENT)
+        return bitmap
+    }
+
+    /**
+     * Same as [get] but without clearing the bitmap content. Useful for
+     * [android.graphics.BitmapFactory.Options.inBitmap] where every pixel is overwritten.
+     */
+    @Synchronized
+    fun getDirty(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        val size = width * height * bytesPerPixel(config)
+        val bucket = buckets[config] ?: return null
+        val bucketSize = bucket.ceilingKey(size)?.takeIf { it <= size.toLong() * MAX_SIZE_MULTIPLE } ?: return null
+        val bitmap = bucket.take(bucketSize)
+        lru.remove(bitmap)
+        currentBytes -= bucketSize
+        bitmap.reconfigure(width, height, config)
+        return bitmap
+    }
+
+    /**
+     * Puts a [bitmap] in the pool to be reused. Bitmaps that can't be reused, or that don't fit
+     * in the pool, are recycled right away so the caller must not use the [bitmap] anymore.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        val size = bitmap.allocationByteCount
+        if (bitmap.isRecycled || lru.contains(bitmap)) return
+        if (!bitmap.isMutable || bitmap.config == null || size > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+
+        buckets.getOrPut(bitmap.config) { TreeMap() }.getOrPut(size) { ArrayDeque() }.addLast(bitmap)
+        lru.add(bitmap)
+        currentBytes += size
+        trimToSize(maxBytes)
+    }
+
+    /** Recycles every pooled bitmap. */
+    @Synchronized
+    fun clear() = trimToSize(0)
+
+    private fun trimToSize(size: Long) {
+        val iterator = lru.iterator()
+        while (currentBytes > size && iterator.hasNext()) {
+            val eldest = iterator.next()
+            iterator.remove()
+            val eldestSize = eldest.allocationByteCount
+            buckets[eldest.config]?.let { bucket ->
+                bucket[eldestSize]?.remove(eldest)
+                if (bucket[eldestSize].isNullOrEmpty()) bucket.remove(eldestSize)
+            }
+            currentBytes -= eldestSize
+            eldest.recycle()
+        }
+    }
+
+    private fun TreeMap<Int, ArrayDeque<Bitmap>>.take(size: Int): Bitmap {
+        val bitmaps = getValue(size)
+        val bitmap = bitmaps.removeFirst()
+        if (bitmaps.isEmpty()) remove(size)
+        return bitmap
+    }
+
+    companion object {
+        private const val DEFAULT_MAX_BYTES = 16L * 1024 * 1024
+
+        /** Pooled bitmaps can be at most this times bigger than the requested size. */
+        private const val MAX_SIZE_MULTIPLE = 4
+
+        @Suppress("DEPRECATION")
+        private fun bytesPerPixel(config: Bitmap.Config) = when {
+            config == Bitmap.Config.ALPHA_8 -> 1
+            config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444 -> 2
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16 -> 8
+            else -> 4
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Lock free bounded queue for many producers and consumers, with room for [minCapacity]
+ * items rounded up to a power of two. Each slot has a sequence number telling whether it's
+ * ready to be written or read on the current lap, so [offer] and [poll] only CAS a counter.
+ */
+internal class BoundedLogQueue<T : Any>(minCapacity: Int) {
+
+    init {
+        require(minCapacity > 0) { "The capacity must be positive" }
+    }
+
+    val capacity = if (minCapacity == 1) 1 else Integer.highestOneBit(minCapacity - 1) shl 1
+
+    private val mask = capacity - 1L
+    private val items = AtomicReferenceArray<T>(capacity)
+    private val sequences = AtomicLongArray(capacity).apply { for (i in 0 until capacity) set(i, i.toLong()) }
+    private val head = AtomicLong()
+    private val tail = AtomicLong()
+
+    /** Approximate number of queued items. */
+    val size: Int
+        get() = (tail.get() - head.get()).coerceIn(0, capacity.toLong()).toInt()
+
+    /** Adds the [item] if there's room, returning whether it was added. */
+    fun offer(item: T): Boolean {
+        while (true) {
+            val position = tail.get()
+            val index = (position and mask).toInt()
+            val distance = sequences.get(index) - position
+            when {
+                distance == 0L -> if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item)
+                    sequences.set(index, position + 1)
+                    return true
+                }
+                distance < 0L -> return false
+            }
+        }
+    }
+
+    /** Removes and returns the oldest item, or null if the queue is empty. */
+    fun poll(): T? {
+        while (true) {
+            val position = head.get()
+            val index = (position and mask).toInt()
+            val distance = sequences.get(index) - (position + 1)
+            when {
+                distance == 0L -> if (head.compareAndSet(position, position + 1)) {
+                    val item = items.get(index)
+                    items.lazySet(index, null)
+                    sequences.set(index, position + mask + 1)
+                    return item
+                }
+                distance < 0L -> return null
+            }
+        }
+    }
+}
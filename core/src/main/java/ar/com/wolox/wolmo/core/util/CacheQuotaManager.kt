@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Keeps the files created inside the app cache folder, like the ones named by
+ * [WolmoFileProvider.getNewCachePictureFilename], under a quota. A sweep deletes the files
+ * older than [maxAgeMillis] and then the oldest ones until they take at most [maxBytes].
+ * Only the files directly inside the folder are swept, sub-folders like the [ImageDiskCache]
+ * one manage their own size.
+ * The throttling of [sweepIfNeeded] and the metrics are kept in memory, so it's a singleton.
+ * [WolmoFileProvider] sweeps if needed every time it names a new cache file.
+ */
+@Singleton
+class CacheQuotaManager private constructor(
+    directory: Lazy<File>,
+    val maxBytes: Long,
+    val maxAgeMillis: Long
+) {
+
+    @Inject
+    constructor(@ApplicationContext context: Context) : this(WolmoFileProvider(context))
+
+    constructor(wolmoFileProvider: WolmoFileProvider) :
+        this(lazy { wolmoFileProvider.getCacheDirectory() }, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MILLIS)
+
+    constructor(directory: File, maxBytes: Long, maxAgeMillis: Long) : this(lazyOf(directory), maxBytes, maxAgeMillis)
+
+    /** Files scanned and deleted, and bytes reclaimed and remaining after a sweep. */
+    data class SweepResult(
+        val scannedFiles: Int,
+        val deletedFiles: Int,
+        val reclaimedBytes: Long,
+        val remainingBytes: Long
+    )
+
+    private val directory by directory
+
+    private val lastSweepTime = AtomicLong(0)
+    private val totalDeletedFilesCounter = AtomicLong(0)
+    private val totalReclaimedBytesCounter = AtomicLong(0)
+
+    /** [CoroutineContext] where the sweeps run. */
+    var ioContext: CoroutineContext = Dispatchers.IO
+
+    /** [CoroutineScope] where [sweepIfNeeded] launches the sweeps by default. */
+    var scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /** Result of the last sweep, or null if there was none yet. */
+    @Volatile
+    var lastSweep: SweepResult? = null
+        private set
+
+    /** Files deleted by every sweep so far. */
+    val totalDeletedFiles: Long
+        get() = totalDeletedFilesCounter.get()
+
+    /** Bytes reclaimed by every sweep so far. */
+    val totalReclaimedBytes: Long
+        get() = totalReclaimedBytesCounter.get()
+
+    /** Sweeps the cache folder in the calling thread. */
+    @WorkerThread
+    @Synchronized
+    fun sweep(): SweepResult {
+        lastSweepTime.set(System.currentTimeMillis())
+        val files = directory.listFiles()?.filter { it.isFile }?.sortedBy { it.lastModified() } ?: emptyList()
+        val oldestAllowed = System.currentTimeMillis() - maxAgeMillis
+        var remainingBytes = files.sumOf { it.length() }
+        var deletedFiles = 0
+        var reclaimedBytes = 0L
+
+        // Oldest files first, so the ones over the quota go after the expired ones
+        for (file in files) {
+            if (file.lastModified() >= oldestAllowed && remainingBytes <= maxBytes) break
+            val length = file.length()
+            if (file.delete()) {
+                deletedFiles++
+                reclaimedBytes += length
+                remainingBytes -= length
+            }
+        }
+
+        totalDeletedFilesCounter.addAndGet(deletedFiles.toLong())
+        totalReclaimedBytesCounter.addAndGet(reclaimedBytes)
+        return SweepResult(files.size, deletedFiles, reclaimedBytes, remainingBytes).also { lastSweep = it }
+    }
+
+    /** Sweeps the cache folder in the [ioContext]. */
+    suspend fun sweepInBackground() = withContext(ioContext) { sweep() }
+
+    /**
+     * Launches a sweep in the [scope] only if there was none in the last [minIntervalMillis].
+     * It's meant to be called often, for example every time a cache file is created.
+     * Returns the [Job] of the sweep or null if it was not needed.
+     */
+    fun sweepIfNeeded(
+        scope: CoroutineScope = this.scope,
+        minIntervalMillis: Long = DEFAULT_SWEEP_INTERVAL_MILLIS
+    ): Job? {
+        val last = lastSweepTime.get()
+        val now = System.currentTimeMillis()
+        if (now - last < minIntervalMillis || !lastSweepTime.compareAndSet(last, now)) return null
+        return scope.launch(ioContext) { sweep() }
+    }
+
+    /**
+     * Sweeps the cache folder every [intervalMillis] while the [scope] is active.
+     * Cancel the returned [Job] to stop it.
+     */
+    fun startPeriodicSweep(scope: CoroutineScope, intervalMillis: Long = DEFAULT_SWEEP_INTERVAL_MILLIS): Job =
+        scope.launch(ioContext) {
+            while (isActive) {
+                sweep()
+                delay(intervalMillis)
+            }
+        }
+
+    companion object {
+        private const val DEFAULT_MAX_BYTES = 100L * 1024 * 1024
+        private val DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7)
+        private val DEFAULT_SWEEP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1)
+    }
+}
@@ -1,38 +1,126 @@
 package ar.com.wolox.wolmo.core.util
 
 import android.content.Context
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.DataStoreFactory
+import androidx.datastore.dataStoreFile
+import androidx.datastore.preferences.core.MutablePreferences
 import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.edit
 import androidx.datastore.preferences.core.emptyPreferences
+import androidx.datastore.preferences.core.mutablePreferencesOf
 import androidx.datastore.preferences.preferencesDataStore
+import androidx.datastore.preferences.preferencesDataStoreFile
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.retryWhen
+import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.launch
+import java.io.File
 import java.io.IOException
 import javax.inject.Inject
 import javax.inject.Singleton
 
-private val Context.dataStore by preferencesDataStore("preferences")
+private const val STORE_NAME = "preferences"
+
+private val Context.dataStore by preferencesDataStore(
+    STORE_NAME,
+    produceMigrations = { context ->
+        DataStoreManager.migratedPreferences.map { VerifiedSharedPreferencesMigration(context, it) }
+    }
+)
 
 @Singleton
-class DataStoreManager @Inject constructor(@ApplicationContext appContext: Context) {
-    private val settingsDataStore = appContext.dataStore
+class DataStoreManager internal constructor(
+    private val settingsDataStore: DataStore<Preferences>,
+    private val scope: CoroutineScope,
+    private val objectStoreFile: (String) -> File
+) {
+
+    @Inject
+    constructor(@ApplicationContext appContext: Context) : this(
+        if (multiProcess) {
+            MultiProcessPreferencesStore(appContext.preferencesDataStoreFile(STORE_NAME))
+        } else {
+            appContext.dataStore
+        },
+        CoroutineScope(SupervisorJob() + Dispatchers.IO),
+        { appContext.dataStoreFile("$it$OBJECT_STORE_EXTENSION") }
+    )
+
+    /** Only one DataStore can be active per file, so they are kept once created. */
+    private val objectStores = HashMap<String, DataStore<*>>()
+
+    /** Time waited before reading the store again after a read error, doubled on every retry. */
+    var readRetryMillis = DEFAULT_READ_RETRY_MILLIS
+
+    /**
+     * Emits empty preferences on a read error and reads the store again, so the [preferences]
+     * keep following it instead of completing with the error.
+     */
+    private val data: Flow<Preferences> = settingsDataStore.data.retryWhen { cause, attempt ->
+        if (cause !is IOException) return@retryWhen false
+        emit(emptyPreferences())
+        delay(readRetryMillis shl attempt.coerceAtMost(MAX_READ_RETRY_SHIFT).toInt())
+        true
+    }
+
+    /**
+     * Latest snapshot of the store, or null until it's loaded. Every flow of this manager
+     * derives from it, so the store is collected once no matter how many preferences are
+     * observed. It starts on the first subscriber and lives as long as the manager.
+     */
+    val preferences: StateFlow<Preferences?> = data.stateIn(scope, SharingStarted.Lazily, null)
+
+    private val loadedPreferences: Flow<Preferences> = preferences.filterNotNull()
+
+    /** Edits enqueued with [enqueuePreference] or [enqueueRemoval] and not yet written. */
+    private val pendingEdits = ArrayList<(MutablePreferences) -> Unit>()
+    private var pendingWrite: CompletableDeferred<Unit>? = null
+
+    /** Time the edits are coalesced for, since the first one is enqueued, before writing them. */
+    var coalescingWindowMillis = DEFAULT_COALESCING_WINDOW_MILLIS
 
     suspend fun <T> getPreference(
         PreferencesKey: Preferences.Key<T>,
         defaultValue: T
-    ): Flow<T> =
-        settingsDataStore.data.catch {
-            if (it is IOException) {
-                emit(emptyPreferences())
-            } else {
-                throw it
-            }
-        }.map {
-            val result = it[PreferencesKey] ?: defaultValue
-            result
+    ): Flow<T> = observePreference(PreferencesKey, defaultValue)
+
+    /** Returns the value of the [key], or [defaultValue] if it has none, every time it changes. */
+    fun <T> observePreference(key: Preferences.Key<T>, defaultValue: T): Flow<T> =
+        loadedPreferences.map { it[key] ?: defaultValue }.distinctUntilChanged()
+
+    /**
+     * Returns a snapshot with the current values of the [keys], read at once. Missing
+     * keys are not included. It's read from the store, so it includes every saved value.
+     */
+    suspend fun getPreferences(keys: Collection<Preferences.Key<*>>): Preferences = data.first().select(keys)
+
+    /** Returns a snapshot with the values of the [keys] every time any of them changes. */
+    fun observePreferences(keys: Collection<Preferences.Key<*>>): Flow<Preferences> =
+        loadedPreferences.map { it.select(keys) }.distinctUntilChanged()
+
+    @Suppress("UNCHECKED_CAST")
+    private fun Preferences.select(keys: Collection<Preferences.Key<*>>): Preferences {
+        val selected: MutablePreferences = mutablePreferencesOf()
+        keys.forEach { key ->
+            this[key]?.let { selected[key as Preferences.Key<Any>] = it }
         }
+        return selected.toPreferences()
+    }
 
     suspend fun <T> savePreference(key: Preferences.Key<T>, value: T) {
         settingsDataStore.edit {
@@ -46,10 +134,109 @@ class DataStoreManager @Inject constructor(@ApplicationContext appContext: Conte
         }
     }
 
+    /**
+     * Loads the store from disk, so the next read doesn't wait for it. A read error is
+     * ignored, it's reported again on the next read.
+     */
+    suspend fun preload() {
+        try {
+            settingsDataStore.data.first()
+        } catch (e: IOException) {
+            // Reported on the next read
+        }
+    }
+
+    /** Saves every one of the [pairs], built with [Preferences.Key.to], in a single transaction. */
+    suspend fun savePreferences(vararg pairs: Preferences.Pair<*>) {
+        settingsDataStore.edit {
+            it.putAll(*pairs)
+        }
+    }
+
+    /**
+     * Enqueues the [value] of the [key] to be saved along with every edit enqueued within
+     * the [coalescingWindowMillis], in a single transaction. The returned [Deferred]
+     * completes once the transaction is on disk, await it if durability is needed.
+     */
+    fun <T> enqueuePreference(key: Preferences.Key<T>, value: T): Deferred<Unit> = enqueue { it[key] = value }
+
+    /** Enqueues the removal of the [key], see [enqueuePreference]. */
+    fun <T> enqueueRemoval(key: Preferences.Key<T>): Deferred<Unit> = enqueue { it.remove(key) }
+
+    /** Writes the enqueued edits right away, without waiting for the [coalescingWindowMillis]. */
+    suspend fun flushPendingEdits() = writePendingEdits()
+
+    private fun enqueue(edit: (MutablePreferences) -> Unit): Deferred<Unit> = synchronized(pendingEdits) {
+        pendingEdits.add(edit)
+        pendingWrite ?: CompletableDeferred<Unit>().also {
+            pendingWrite = it
+            scope.launch {
+                delay(coalescingWindowMillis)
+                writePendingEdits()
+            }
+        }
+    }
+
+    private suspend fun writePendingEdits() {
+        val (edits, write) = synchronized(pendingEdits) {
+            val write = pendingWrite ?: return
+            pendingWrite = null
+            ArrayList(pendingEdits).also { pendingEdits.clear() } to write
+        }
+        try {
+            settingsDataStore.edit { preferences -> edits.forEach { it(preferences) } }
+            write.complete(Unit)
+        } catch (e: Exception) {
+            write.completeExceptionally(e)
+            if (e is CancellationException) throw e
+        }
+    }
+
+    /**
+     * Returns the store of objects named [name], encoded with the [codec]. Use it to store
+     * objects instead of encoding them in string preferences, for example [BinaryRecord]s
+     * with [BinaryRecord.CODEC], which decode their fields on demand. Every call with the
+     * same [name] must use the same [codec].
+     * Object stores are single process even with [multiProcess], so use each one from a single
+     * process only.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> objectStore(name: String, codec: BinaryCodec<T>): DataStore<T> = synchronized(objectStores) {
+        objectStores.getOrPut(name) {
+            DataStoreFactory.create(BinaryCodecSerializer(codec), scope = scope) { objectStoreFile(name) }
+        } as DataStore<T>
+    }
+
     suspend fun clearAllPreference() {
         settingsDataStore.edit {
             it.clear()
         }
     }
 
-}
\ No newline at end of file
+    companion object {
+
+        private const val DEFAULT_COALESCING_WINDOW_MILLIS = 100L
+        private const val DEFAULT_READ_RETRY_MILLIS = 1000L
+        private const val MAX_READ_RETRY_SHIFT = 5L
+        private const val OBJECT_STORE_EXTENSION = ".bin"
+
+        /**
+         * Names of the [android.content.SharedPreferences] files, like the one used by
+         * [SharedPreferencesManager], to migrate into the store the first time it's opened.
+         * Each file is deleted once it's migrated. Set them before the store is used, for
+         * example in [ar.com.wolox.wolmo.core.WolmoApplication.onInit].
+         */
+        @Volatile
+        var migratedPreferences: Set<String> = emptySet()
+
+        /**
+         * Whether the store is shared by many processes of the app, using a
+         * [MultiProcessPreferencesStore]. Changes made by any process are emitted in every
+         * other one, at the cost of reading from disk on every read. [migratedPreferences]
+         * are not migrated in this mode. Set it before the store is used, in every process.
+         * It doesn't apply to the [objectStore]s.
+         */
+        @Volatile
+        var multiProcess = false
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.security.MessageDigest
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Disk LRU cache of processed images stored inside the app cache folder. Entries are
+ * identified by a key, usually built with [keyOf], and are written atomically: they are
+ * written to a temporary file first and renamed once complete, so a reader never sees
+ * a partial entry.
+ * The least recently used entries are evicted once the cache takes more than [maxBytes].
+ * It keeps an index of the entries in memory, so there must be a single instance per folder,
+ * like the injected singleton.
+ */
+@Singleton
+class ImageDiskCache private constructor(directory: Lazy<File>, private val maxBytes: Long) {
+
+    @Inject
+    constructor(@ApplicationContext context: Context) : this(WolmoFileProvider(context))
+
+    constructor(wolmoFileProvider: WolmoFileProvider) :
+        this(lazy { File(wolmoFileProvider.getCacheDirectory(), DIRECTORY_NAME) }, DEFAULT_MAX_BYTES)
+
+    constructor(directory: File, maxBytes: Long) : this(lazyOf(directory), maxBytes)
+
+    private val directory by directory
+
+    /** Entries by key, least recently used first. */
+    private val entries: LinkedHashMap<String, Long> by lazy { loadEntries() }
+
+    private var currentBytes: Long = 0
+
+    /** Bytes currently taken by the cache entries. */
+    val size: Long
+        @Synchronized get() {
+            entries
+            return currentBytes
+        }
+
+    private fun loadEntries() = LinkedHashMap<String, Long>(0, 0.75f, true).apply {
+        directory.mkdirs()
+        directory.listFiles()
+            ?.filter { it.isFile }
+            ?.partition { it.name.endsWith(TMP_EXTENSION) }
+            ?.let { (partials, files) ->
+                // Leftovers of writes interrupted by a crash
+                partials.forEach { it.delete() }
+                files.sortedBy { it.lastModified() }.forEach {
+                    put(it.name, it.length())
+                    currentBytes += it.length()
+                }
+            }
+    }
+
+    /** Returns the cached [File] for a [key], or null if it's not cached. */
+    @Synchronized
+    fun get(key: String): File? {
+        entries[key] ?: return null
+        val file = File(directory, key)
+        if (!file.exists()) {
+            removeEntry(key)
+            return null
+        }
+        // Keeps the access order when the entries are loaded again from disk
+        file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    /** Returns the cached bytes for a [key], or null if it's not cached. */
+    fun getBytes(key: String): ByteArray? = get(key)?.readBytes()
+
+    /**
+     * Stores a new entry for a [key] with the content written by [writer] and returns its [File].
+     * If [writer] fails or returns false nothing is stored and null is returned.
+     */
+    fun put(key: String, writer: (OutputStream) -> Boolean): File? {
+        // Loads the entries before writing, as loading them deletes the temporary files
+        synchronized(this) { entries }
+        val file = File(directory, key)
+        // Unique per write, so concurrent writes of the same key don't mix their content
+        val tmp = File.createTempFile(TMP_PREFIX, TMP_EXTENSION, directory)
+        try {
+            if (!FileOutputStream(tmp).buffered().use(writer) || !tmp.renameTo(file)) {
+                tmp.delete()
+                return null
+            }
+        } catch (e: Exception) {
+            tmp.delete()
+            throw e
+        }
+
+        synchronized(this) {
+            entries.remove(key)?.let { currentBytes -= it }
+            entries[key] = file.length()
+            currentBytes += file.length()
+            trimToSize(maxBytes)
+        }
+        return file
+    }
+
+    /** Removes the entry for a [key], if any. */
+    @Synchronized
+    fun remove(key: String) {
+        File(directory, key).delete()
+        removeEntry(key)
+    }
+
+    /** Removes every entry of the cache. */
+    @Synchronized
+    fun clear() = trimToSize(0)
+
+    private fun removeEntry(key: String) {
+        entries.remove(key)?.let { currentBytes -= it }
+    }
+
+    private fun trimToSize(maxSize: Long) {
+        val iterator = entries.entries.iterator()
+        while (currentBytes > maxSize && iterator.hasNext()) {
+            val (key, length) = iterator.next()
+            iterator.remove()
+            File(directory, key).delete()
+            currentBytes -= length
+        }
+    }
+
+    companion object {
+        private const val DIRECTORY_NAME = "images"
+        private const val TMP_PREFIX = "entry"
+        private const val TMP_EXTENSION = ".tmp"
+        private const val DEFAULT_MAX_BYTES = 32L * 1024 * 1024
+
+        /**
+         * Returns a key that identifies the result of processing the [source] version, given
+         * by its [size] and last modification time [lastModified], with the transformation
+         * [params].
+         */
+        @JvmStatic
+        fun keyOf(source: String, size: Long, lastModified: Long, vararg params: Any?): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            digest.update(listOf<Any?>(source, size, lastModified, *params).joinToString("|").toByteArray())
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
@@ -21,34 +21,106 @@
  */
 package ar.com.wolox.wolmo.core.util
 
+import android.content.ContentResolver
 import android.content.Context
 import android.content.Intent
+import android.database.Cursor
 import android.graphics.Bitmap
 import android.graphics.Bitmap.CompressFormat
 import android.graphics.BitmapFactory
+import android.graphics.Canvas
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.RectF
 import android.net.Uri
+import android.os.Build
 import android.os.Environment
 import android.provider.MediaStore
 import androidx.annotation.IntRange
+import androidx.annotation.RequiresApi
 import androidx.annotation.StringDef
 import androidx.annotation.StringRes
+import androidx.exifinterface.media.ExifInterface
 import androidx.fragment.app.Fragment
+import androidx.heifwriter.HeifWriter
 import ar.com.wolox.wolmo.core.di.scopes.ApplicationScope
+import ar.com.wolox.wolmo.core.util.WolmoFileProvider.ImageType
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.FileDescriptor
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
 import javax.inject.Inject
+import kotlin.coroutines.CoroutineContext
+
+/** Compresses a [Bitmap] with a quality into an [OutputStream]. */
+private typealias Encoder = (Bitmap, Int, OutputStream) -> Boolean
 
 /**
  * Utils class to manipulate images, through [Bitmap]s or their corresponding [Uri], and
  * for retrieving pictures from gallery/taking them from the camera.
+ * The intermediate bitmaps it creates are released into a [BitmapPool] to be reused by
+ * the following decodes and resizes, and processed images can be kept in an [ImageDiskCache].
  */
-class ImageProvider @Inject constructor(private val context: Context, private val wolmoFileProvider: WolmoFileProvider) {
+class ImageProvider @Inject constructor(
+    private val context: Context,
+    private val wolmoFileProvider: WolmoFileProvider,
+    private val bitmapPool: BitmapPool,
+    private val imageCache: ImageDiskCache?
+) {
+
+    /**
+     * Builds a provider without [ImageDiskCache], so [getCachedImage] can't be used. There must be
+     * a single cache per folder, so pass the injected one to cache images.
+     */
+    constructor(context: Context, wolmoFileProvider: WolmoFileProvider, bitmapPool: BitmapPool) :
+        this(context, wolmoFileProvider, bitmapPool, null)
+
+    /**
+     * Builds a provider that doesn't pool bitmaps nor cache images, see the other constructors
+     * to pass the injected ones.
+     */
+    constructor(context: Context, wolmoFileProvider: WolmoFileProvider) :
+        this(context, wolmoFileProvider, BitmapPool(0))
+
+    /**
+     * [CoroutineContext] where the suspend functions decode, resize and compress the images.
+     * It uses [Dispatchers.Default] by default.
+     */
+    var processingContext: CoroutineContext = Dispatchers.Default
 
     /** Image compression formats supported. */
     @Retention(AnnotationRetention.SOURCE)
-    @StringDef(PNG, JPG)
+    @StringDef(PNG, JPG, WEBP, HEIF)
     annotation class ImageFormat
 
+    /**
+     * Result of compressing an image to a max size: its [bytes] and the [quality], [width] and
+     * [height] chosen to get them, after a number of compression [attempts]. If the max size
+     * couldn't be reached [isWithinMaxSize] is false and [bytes] is the smallest result found.
+     */
+    class CompressedImage(
+        val bytes: ByteArray,
+        val quality: Int,
+        val width: Int,
+        val height: Int,
+        val attempts: Int,
+        val isWithinMaxSize: Boolean
+    )
+
     @Deprecated(
         "Use getImageFromGallery(fragment, requestCode): Boolean instead",
         ReplaceWith("getImageFromGallery(fragment, requestCode)"))
@@ -127,17 +199,376 @@ class ImageProvider @Inject constructor(private val context: Context, private va
         @IntRange(from = 0, to = 100) quality: Int,
         maxWidth: Int,
         maxHeight: Int
-    ) = getImageAsByteArray(
-        BitmapFactory.decodeFile(wolmoFileProvider.getRealPathFromUri(image)),
-        format,
-        quality,
-        maxWidth,
-        maxHeight)
+    ) = ByteArrayOutputStream().also {
+        writeImage(image, it, format, quality, maxWidth, maxHeight)
+    }.toByteArray()
+
+    /**
+     * Writes an [image], represented by its [Uri], into an [output] stream without keeping
+     * the compressed image in memory. It'll be formatted with a [format], a [quality] and
+     * a [maxWidth] and [maxHeight], and rotated as its EXIF orientation says. The [output]
+     * is not closed and, as every image compressed by this class, it has no EXIF metadata.
+     * Returns true if the image was successfully compressed, false otherwise.
+     */
+    fun writeImage(
+        image: Uri,
+        output: OutputStream,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = writeImage(image, output, encoderOf(format), quality, maxWidth, maxHeight)
+
+    /**
+     * Same as [writeImage] but encoding the [image] as an [imageType], which supports formats
+     * like WEBP lossless or HEIF that have no [CompressFormat] in every API level.
+     * See [compress].
+     */
+    fun writeImage(
+        image: Uri,
+        output: OutputStream,
+        imageType: ImageType,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = writeImage(image, output, encoderOf(imageType), quality, maxWidth, maxHeight)
+
+    /**
+     * Same as [getImageAsByteArray] but encoding the [image] as an [imageType], which supports
+     * formats like WEBP lossless or HEIF that have no [CompressFormat] in every API level.
+     * See [compress].
+     */
+    fun getImageAsByteArray(
+        image: Uri,
+        imageType: ImageType,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = ByteArrayOutputStream().also {
+        writeImage(image, it, imageType, quality, maxWidth, maxHeight)
+    }.toByteArray()
+
+    private fun writeImage(
+        image: Uri,
+        output: OutputStream,
+        encoder: Encoder,
+        quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ): Boolean {
+        val orientation = readOrientation(image)
+        return writeOwnedImage(
+            decodeSampledBitmap(image, maxWidth, maxHeight, orientation),
+            output,
+            encoder,
+            quality,
+            maxWidth,
+            maxHeight,
+            bitmapPool,
+            orientation)
+    }
+
+    /**
+     * Writes an [image], represented by its [Uri], into an [output] file descriptor. It'll be
+     * formatted with a [format], a [quality] and a [maxWidth] and [maxHeight]. The [output]
+     * is flushed but not closed.
+     * Returns true if the image was successfully compressed, false otherwise.
+     */
+    fun writeImage(
+        image: Uri,
+        output: FileDescriptor,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = BufferedOutputStream(FileOutputStream(output)).let {
+        writeImage(image, it, format, quality, maxWidth, maxHeight).also { _ -> it.flush() }
+    }
+
+    /**
+     * Writes an [image], represented by its [Uri], into a [destination] opened through the
+     * [ContentResolver]. It'll be formatted with a [format], a [quality] and a [maxWidth]
+     * and [maxHeight].
+     * Returns true if the image was successfully compressed, false otherwise.
+     */
+    fun writeImage(
+        image: Uri,
+        destination: Uri,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = context.contentResolver.openOutputStream(destination)?.use {
+        writeImage(image, it, format, quality, maxWidth, maxHeight)
+    } ?: false
+
+    /**
+     * Returns the cached result of formatting an [image], represented by its [Uri], with
+     * a [format], a [quality] and a [maxWidth] and [maxHeight]. The image is only decoded
+     * and compressed if there's no cached result for its current version yet.
+     * It'll throw an [IllegalArgumentException] if the image could not be decoded, an
+     * [IOException] if it could not be read, compressed or stored and an
+     * [IllegalStateException] if this provider was built without an [ImageDiskCache].
+     */
+    @Throws(IOException::class)
+    fun getCachedImage(
+        image: Uri,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ): File {
+        val imageCache = checkNotNull(imageCache) { "ImageProvider built without an ImageDiskCache" }
+        val key = getCacheKey(image, format, sanitizeQuality(quality), maxWidth, maxHeight)
+        return imageCache.get(key)
+            ?: imageCache.put(key) { writeImage(image, it, format, quality, maxWidth, maxHeight) }
+            ?: throw IOException("Unable to compress image: $image")
+    }
+
+    /**
+     * Same as [getCachedImage] but returning the cached [ByteArray]. It throws the same
+     * exceptions.
+     */
+    @Throws(IOException::class)
+    fun getCachedImageAsByteArray(
+        image: Uri,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = getCachedImage(image, format, quality, maxWidth, maxHeight).readBytes()
+
+    /**
+     * Returns the [ImageDiskCache] key for an [image] and its transformation [params]. The image
+     * version is identified by its size and last modification time, when they are available.
+     */
+    private fun getCacheKey(image: Uri, vararg params: Any?): String {
+        var size = UNKNOWN
+        var lastModified = UNKNOWN
+        if (image.scheme == ContentResolver.SCHEME_FILE) {
+            image.path?.let { File(it) }?.let {
+                size = it.length()
+                lastModified = it.lastModified()
+            }
+        } else {
+            try {
+                context.contentResolver.query(image, SOURCE_PROJECTION, null, null, null)?.use {
+                    if (it.moveToFirst()) {
+                        size = it.getLongOrNull(MediaStore.MediaColumns.SIZE) ?: UNKNOWN
+                        lastModified = it.getLongOrNull(MediaStore.MediaColumns.DATE_MODIFIED) ?: UNKNOWN
+                    }
+                }
+            } catch (e: IllegalArgumentException) {
+                // The provider doesn't know these columns, the uri alone identifies the image
+            }
+        }
+        return ImageDiskCache.keyOf(image.toString(), size, lastModified, *params)
+    }
+
+    private fun Cursor.getLongOrNull(column: String) =
+        getColumnIndex(column).takeIf { it >= 0 && !isNull(it) }?.let { getLong(it) }
+
+    /**
+     * Get the [CompressedImage] of an [image], represented by its [Uri], that takes at most
+     * [maxBytes]. The image is decoded and fitted in [maxWidth] and [maxHeight] only once,
+     * and then compressed with a [format] and lower qualities, down to [minQuality], and
+     * smaller sizes until its result fits in [maxBytes]. See [compressToMaxSize].
+     */
+    @JvmOverloads
+    fun compressToMaxSize(
+        image: Uri,
+        format: CompressFormat,
+        maxBytes: Int,
+        maxWidth: Int,
+        maxHeight: Int,
+        @IntRange(from = 0, to = 100) minQuality: Int = DEFAULT_MIN_QUALITY
+    ): CompressedImage {
+        val orientation = readOrientation(image)
+        val bitmap = decodeSampledBitmap(image, maxWidth, maxHeight, orientation)
+        val fitted = fit(bitmap, maxWidth, maxHeight, bitmapPool, orientation)
+        try {
+            return compressToMaxSize(fitted, format, maxBytes, minQuality, bitmapPool)
+        } finally {
+            if (fitted !== bitmap) release(fitted, bitmapPool)
+            release(bitmap, bitmapPool)
+        }
+    }
+
+    /**
+     * Suspend version of [getImageAsByteArray] that runs on the [processingContext], so it can
+     * be called from the main thread, for example from a
+     * [ar.com.wolox.wolmo.core.presenter.CoroutineBasePresenter] scope.
+     * At most [MAX_CONCURRENT_DECODES] images are processed at once, counting the ones of
+     * every [ImageProvider].
+     */
+    suspend fun compressImage(
+        image: Uri,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ): ByteArray = decodePermits.withPermit {
+        processImage(image, format, quality, maxWidth, maxHeight)
+    }
+
+    private suspend fun processImage(
+        image: Uri,
+        format: CompressFormat,
+        quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ) = withContext(processingContext) {
+        getImageAsByteArray(image, format, quality, maxWidth, maxHeight)
+    }
+
+    /**
+     * Suspend version of [writeImage] that runs on the [processingContext], so it can be called
+     * from the main thread, for example from a
+     * [ar.com.wolox.wolmo.core.presenter.CoroutineBasePresenter] scope.
+     * At most [MAX_CONCURRENT_DECODES] images are processed at once, counting the ones of
+     * every [ImageProvider].
+     */
+    suspend fun compressImage(
+        image: Uri,
+        output: OutputStream,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int
+    ): Boolean = decodePermits.withPermit {
+        withContext(processingContext) {
+            writeImage(image, output, format, quality, maxWidth, maxHeight)
+        }
+    }
+
+    /**
+     * Compresses every one of the [images] as [compressImage] does, processing up to
+     * [parallelism] of them at the same time instead of [MAX_CONCURRENT_DECODES]. Results are
+     * emitted as soon as they are ready, so they may not keep the order of [images]. An image
+     * that fails doesn't stop the others, its failure is emitted instead.
+     */
+    fun compressImages(
+        images: List<Uri>,
+        format: CompressFormat,
+        @IntRange(from = 0, to = 100) quality: Int,
+        maxWidth: Int,
+        maxHeight: Int,
+        parallelism: Int = MAX_CONCURRENT_DECODES
+    ): Flow<Pair<Uri, Result<ByteArray>>> = channelFlow {
+        val permits = Semaphore(parallelism.coerceAtLeast(1))
+        images.forEach { image ->
+            launch {
+                permits.withPermit {
+                    val result = try {
+                        Result.success(processImage(image, format, quality, maxWidth, maxHeight))
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Result.failure(e)
+                    }
+                    send(image to result)
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes an [image], represented by its [Uri], subsampled to the closest size that still
+     * covers the [maxWidth] and [maxHeight] box once rotated to its EXIF [orientation].
+     * The image is read through the [ContentResolver] so it works with any content provider,
+     * even the ones that don't expose a file path. The [orientation] is not applied, use [fit]
+     * for that.
+     * It'll throw an [IllegalArgumentException] if the image could not be decoded.
+     */
+    @JvmOverloads
+    fun decodeSampledBitmap(
+        image: Uri,
+        maxWidth: Int,
+        maxHeight: Int,
+        orientation: Int = ExifInterface.ORIENTATION_NORMAL
+    ): Bitmap =
+        requireNotNull(decodeSampled(maxWidth, maxHeight, bitmapPool, orientation) { options ->
+            context.contentResolver.openInputStream(image)?.use { BitmapFactory.decodeStream(it, null, options) }
+        }) {
+            "Unable to decode image: $image"
+        }
+
+    /**
+     * Returns the EXIF orientation of an [image], represented by its [Uri], reading only
+     * the header of the image. It returns [ExifInterface.ORIENTATION_NORMAL] if it's unknown.
+     */
+    fun readOrientation(image: Uri) = try {
+        context.contentResolver.openInputStream(image)?.use { readOrientation(it) }
+            ?: ExifInterface.ORIENTATION_NORMAL
+    } catch (e: IOException) {
+        ExifInterface.ORIENTATION_NORMAL
+    }
+
+    /**
+     * Copies the EXIF metadata of a [source] image, represented by its [Uri], into
+     * a [destination] image file created by this class, which has no metadata at all.
+     * The orientation is not copied since the pixels of the [destination] are already rotated.
+     * It'll throw an [IOException] if the metadata could not be read or written.
+     */
+    @Throws(IOException::class)
+    fun copyExifMetadata(source: Uri, destination: File) {
+        val sourceExif = context.contentResolver.openInputStream(source)?.use { ExifInterface(it) }
+            ?: throw IOException("Unable to read image: $source")
+        val destinationExif = ExifInterface(destination.path)
+        COPIED_EXIF_TAGS.forEach { tag ->
+            sourceExif.getAttribute(tag)?.let { destinationExif.setAttribute(tag, it) }
+        }
+        destinationExif.saveAttributes()
+    }
 
     companion object {
 
         const val PNG = "png"
         const val JPG = "jpg"
+        const val WEBP = "webp"
+        const val HEIF = "heic"
+
+        /** Max amount of images decoded at the same time by the suspend functions. */
+        const val MAX_CONCURRENT_DECODES = 2
+
+        /**
+         * Bounds how many images are decoded at once by [compressImage], and so the peak memory
+         * used by them. It's shared since every injection creates a new [ImageProvider].
+         */
+        private val decodePermits = Semaphore(MAX_CONCURRENT_DECODES)
+
+        /** Lowest quality used by default by [compressToMaxSize]. */
+        const val DEFAULT_MIN_QUALITY = 10
+
+        private const val MAX_QUALITY = 100
+        private const val MIN_DIMENSION = 16
+        private const val SCALE_SEARCH_STEPS = 10
+
+        private const val UNKNOWN = -1L
+        private const val HEIF_TMP_PREFIX = "heif"
+        private const val HEIF_TIMEOUT_MS = 10_000L
+
+        private val COPIED_EXIF_TAGS = arrayOf(
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_DATETIME_ORIGINAL,
+            ExifInterface.TAG_DATETIME_DIGITIZED,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_F_NUMBER,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_PHOTOGRAPHIC_SENSITIVITY,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP)
+        private val SOURCE_PROJECTION = arrayOf(MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED)
 
         /**
          * Get [ByteArray] from a [bitmap], represented by its [Uri]. It'll be formatted with
@@ -151,9 +582,111 @@ class ImageProvider @Inject constructor(private val context: Context, private va
             maxWidth: Int,
             maxHeight: Int
         ) = ByteArrayOutputStream().also {
-            fit(bitmap, maxWidth, maxHeight).compress(format, sanitizeQuality(quality), it)
+            writeImage(bitmap, it, format, quality, maxWidth, maxHeight)
         }.toByteArray()
 
+        /**
+         * Writes a [bitmap] into an [output] stream. It'll be formatted with a [format],
+         * a [quality] and a [maxWidth] and [maxHeight]. The [output] is not closed.
+         * Returns true if the image was successfully compressed, false otherwise.
+         */
+        @JvmStatic
+        fun writeImage(
+            bitmap: Bitmap,
+            output: OutputStream,
+            format: CompressFormat?,
+            @IntRange(from = 0, to = 100) quality: Int,
+            maxWidth: Int,
+            maxHeight: Int
+        ) = withFitted(bitmap, maxWidth, maxHeight) { it.compress(format, sanitizeQuality(quality), output) }
+
+        /**
+         * Writes a [bitmap] into an [output] stream. It'll be encoded as an [imageType] with
+         * a [quality] and formatted with a [maxWidth] and [maxHeight]. The [output] is not closed.
+         * Returns true if the image was successfully compressed, false otherwise.
+         */
+        @JvmStatic
+        fun writeImage(
+            bitmap: Bitmap,
+            output: OutputStream,
+            imageType: ImageType,
+            @IntRange(from = 0, to = 100) quality: Int,
+            maxWidth: Int,
+            maxHeight: Int
+        ) = withFitted(bitmap, maxWidth, maxHeight) { compress(it, imageType, quality, output) }
+
+        /**
+         * Runs the [block] with the [bitmap] fitted in [maxWidth] and [maxHeight]. The [bitmap]
+         * belongs to the caller so it's kept, but its re-sized copy is recycled afterwards.
+         */
+        private inline fun <T> withFitted(bitmap: Bitmap, maxWidth: Int, maxHeight: Int, block: (Bitmap) -> T): T {
+            val fitted = fit(bitmap, maxWidth, maxHeight)
+            try {
+                return block(fitted)
+            } finally {
+                if (fitted !== bitmap) fitted.recycle()
+            }
+        }
+
+        /**
+         * Compresses a [bitmap] into an [output] stream as an [imageType] with a [quality].
+         * Lossless types ignore the [quality]. Before API 30, WEBP images are encoded with
+         * the deprecated [CompressFormat.WEBP]. HEIF images are encoded with [HeifWriter], which
+         * needs API 28 and a HEVC encoder, see [ImageType.isEncodingSupported]. Without them
+         * they are encoded as JPEG instead.
+         * Returns true if the image was successfully compressed, false otherwise.
+         */
+        @JvmStatic
+        fun compress(
+            bitmap: Bitmap,
+            imageType: ImageType,
+            @IntRange(from = 0, to = 100) quality: Int,
+            output: OutputStream
+        ): Boolean {
+            val finalQuality = if (imageType.isLossless) MAX_QUALITY else sanitizeQuality(quality)
+            return when {
+                imageType != ImageType.HEIF -> bitmap.compress(imageType.compressFormat, finalQuality, output)
+                imageType.isEncodingSupported && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ->
+                    compressHeif(bitmap, finalQuality, output)
+                else -> bitmap.compress(CompressFormat.JPEG, finalQuality, output)
+            }
+        }
+
+        /**
+         * [HeifWriter] only writes to files, so the image is encoded into a temporary file and
+         * then copied into the [output].
+         */
+        @RequiresApi(Build.VERSION_CODES.P)
+        private fun compressHeif(bitmap: Bitmap, quality: Int, output: OutputStream): Boolean {
+            val file = File.createTempFile(HEIF_TMP_PREFIX, ImageType.HEIF.extension)
+            try {
+                val writer = HeifWriter.Builder(file.path, bitmap.width, bitmap.height, HeifWriter.INPUT_MODE_BITMAP)
+                    .setQuality(quality)
+                    .build()
+                try {
+                    writer.start()
+                    writer.addBitmap(bitmap)
+                    writer.stop(HEIF_TIMEOUT_MS)
+                } finally {
+                    writer.close()
+                }
+                FileInputStream(file).use { it.copyTo(output) }
+                return true
+            } catch (e: Exception) {
+                return false
+            } finally {
+                file.delete()
+            }
+        }
+
+        private fun encoderOf(format: CompressFormat?): Encoder = { bitmap, quality, output ->
+            bitmap.compress(format, quality, output)
+        }
+
+        private fun encoderOf(imageType: ImageType): Encoder = { bitmap, quality, output ->
+            compress(bitmap, imageType, quality, output)
+        }
+
         /**
          * Get [ByteArray] from a [file], represented by its [Uri]. It'll be formatted with
          * a [format], a [quality] and a [maxWidth] and [maxHeight].
@@ -165,33 +698,346 @@ class ImageProvider @Inject constructor(private val context: Context, private va
             @IntRange(from = 0, to = 100) quality: Int,
             maxWidth: Int,
             maxHeight: Int
-        ) = getImageAsByteArray(
-            BitmapFactory.decodeFile(file.path),
-            format,
-            quality,
-            maxWidth,
-            maxHeight)
+        ): ByteArray {
+            val orientation = readOrientation(file)
+            return ByteArrayOutputStream().also {
+                writeOwnedImage(
+                    decodeSampledBitmap(file.path, maxWidth, maxHeight, orientation = orientation),
+                    it,
+                    encoderOf(format),
+                    quality,
+                    maxWidth,
+                    maxHeight,
+                    orientation = orientation)
+            }.toByteArray()
+        }
+
+        /**
+         * Returns the EXIF orientation of an image [input] stream, reading only its header.
+         * It returns [ExifInterface.ORIENTATION_NORMAL] if it's unknown.
+         */
+        @JvmStatic
+        fun readOrientation(input: InputStream) = try {
+            ExifInterface(input).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)
+        } catch (e: IOException) {
+            ExifInterface.ORIENTATION_NORMAL
+        }
+
+        /**
+         * Returns the EXIF orientation of an image [file], reading only its header.
+         * It returns [ExifInterface.ORIENTATION_NORMAL] if it's unknown.
+         */
+        @JvmStatic
+        fun readOrientation(file: File) = try {
+            FileInputStream(file).use { readOrientation(it) }
+        } catch (e: IOException) {
+            ExifInterface.ORIENTATION_NORMAL
+        }
+
+        /**
+         * Same as [writeImage] but for a [bitmap] created by this class, which is rotated to its
+         * [orientation] while it's re-sized. Both the [bitmap] and its re-sized copy are released
+         * into the [pool] (or recycled if there's none) afterwards.
+         */
+        private fun writeOwnedImage(
+            bitmap: Bitmap,
+            output: OutputStream,
+            encoder: Encoder,
+            quality: Int,
+            maxWidth: Int,
+            maxHeight: Int,
+            pool: BitmapPool? = null,
+            orientation: Int = ExifInterface.ORIENTATION_NORMAL
+        ): Boolean {
+            val fitted = fit(bitmap, maxWidth, maxHeight, pool, orientation)
+            try {
+                return encoder(fitted, sanitizeQuality(quality), output)
+            } finally {
+                if (fitted !== bitmap) release(fitted, pool)
+                release(bitmap, pool)
+            }
+        }
+
+        private fun release(bitmap: Bitmap, pool: BitmapPool?) {
+            if (pool != null) pool.put(bitmap) else bitmap.recycle()
+        }
+
+        /**
+         * Decodes the image stored at [path] subsampled to the closest size that still covers
+         * the [maxWidth] and [maxHeight] box once rotated to its EXIF [orientation]. Only
+         * the image bounds are read at first, so the full resolution bitmap is never allocated.
+         * If a [pool] is given, its bitmaps are reused to decode the image. The [orientation] is
+         * not applied, use [fit] for that.
+         * It'll throw an [IllegalArgumentException] if the image could not be decoded.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun decodeSampledBitmap(
+            path: String?,
+            maxWidth: Int,
+            maxHeight: Int,
+            pool: BitmapPool? = null,
+            orientation: Int = ExifInterface.ORIENTATION_NORMAL
+        ): Bitmap =
+            requireNotNull(decodeSampled(maxWidth, maxHeight, pool, orientation) { BitmapFactory.decodeFile(path, it) }) {
+                "Unable to decode image: $path"
+            }
+
+        /**
+         * Runs [decode] twice: first reading only the bounds of the image and then decoding it
+         * with the largest power of two sample size that keeps it bigger than the [maxWidth]
+         * and [maxHeight] box once rotated to its [orientation]. The decoded bitmap is mutable
+         * and, if possible, reuses one of the [pool] bitmaps.
+         */
+        private fun decodeSampled(
+            maxWidth: Int,
+            maxHeight: Int,
+            pool: BitmapPool?,
+            orientation: Int,
+            decode: (BitmapFactory.Options) -> Bitmap?
+        ): Bitmap? {
+            val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            decode(options)
+            if (options.outWidth <= 0 || options.outHeight <= 0) return null
+
+            val inSampleSize = if (isTransposed(orientation)) {
+                calculateInSampleSize(options.outHeight, options.outWidth, maxWidth, maxHeight)
+            } else {
+                calculateInSampleSize(options.outWidth, options.outHeight, maxWidth, maxHeight)
+            }
+            options.inJustDecodeBounds = false
+            options.inSampleSize = inSampleSize
+            options.inMutable = true
+            options.inBitmap = pool?.getDirty(
+                ceilDiv(options.outWidth, inSampleSize),
+                ceilDiv(options.outHeight, inSampleSize),
+                options.inPreferredConfig)
+            val decoded = try {
+                decode(options)
+            } catch (e: IllegalArgumentException) {
+                if (options.inBitmap == null) throw e
+                null
+            }
+            val inBitmap = options.inBitmap
+            if (decoded != null || inBitmap == null) return decoded
+            // The pooled bitmap can't hold this image, decode it into a new one instead. Some
+            // decoders throw for it and others, like decodeFile and decodeStream, return null
+            options.inBitmap = null
+            pool?.put(inBitmap)
+            return decode(options)
+        }
+
+        private fun ceilDiv(value: Int, divisor: Int) = (value + divisor - 1) / divisor
+
+        /**
+         * Returns the largest power of two sample size for an image of [width] x [height]
+         * that, once decoded, is still bigger than the size it should [fit] in [maxWidth]
+         * and [maxHeight].
+         */
+        @JvmStatic
+        fun calculateInSampleSize(width: Int, height: Int, maxWidth: Int, maxHeight: Int): Int {
+            if (maxWidth <= 0 || maxHeight <= 0 || width <= maxWidth && height <= maxHeight) {
+                return 1
+            }
+            // Same side that fit() uses to keep the aspect ratio
+            val scale = if (width > height) width.toFloat() / maxWidth else height.toFloat() / maxHeight
+            var inSampleSize = 1
+            while (inSampleSize * 2 <= scale) {
+                inSampleSize *= 2
+            }
+            return inSampleSize
+        }
+
+        /**
+         * Get the [CompressedImage] of a [bitmap] that takes at most [maxBytes] once compressed
+         * with a [format]. The highest quality that fits, down to [minQuality], is found through
+         * a binary search; if not even [minQuality] fits, the largest scale of the [bitmap] at
+         * which [minQuality] fits is binary searched first, with the shortest side down to
+         * [MIN_DIMENSION] pixels. Every attempt reuses the same output buffers and the scaled
+         * down copies are taken from, and released into, the [pool].
+         * The given [bitmap] is neither modified nor released.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun compressToMaxSize(
+            bitmap: Bitmap,
+            format: CompressFormat,
+            maxBytes: Int,
+            @IntRange(from = 0, to = 100) minQuality: Int = DEFAULT_MIN_QUALITY,
+            pool: BitmapPool? = null
+        ): CompressedImage {
+            // Lossless formats ignore the quality, only the scale is searched for them
+            val lowestQuality = if (isLossless(format)) MAX_QUALITY else sanitizeQuality(minQuality)
+            // The best result so far and the buffer for the next attempt, swapped when it's better
+            var best = ByteArrayOutputStream()
+            var attempt = ByteArrayOutputStream()
+            var bestQuality = lowestQuality
+            var attempts = 0
+            var image = bitmap
+
+            fun compress(quality: Int, target: Bitmap = image): Int {
+                attempt.reset()
+                target.compress(format, quality, attempt)
+                attempts++
+                return attempt.size()
+            }
+
+            fun keepAttempt(quality: Int) {
+                best = attempt.also { attempt = best }
+                bestQuality = quality
+            }
+
+            fun result() = CompressedImage(best.toByteArray(), bestQuality, image.width, image.height,
+                attempts, best.size() <= maxBytes)
+
+            fun scaled(scale: Double) = fit(bitmap,
+                (bitmap.width * scale).toInt().coerceAtLeast(MIN_DIMENSION),
+                (bitmap.height * scale).toInt().coerceAtLeast(MIN_DIMENSION),
+                pool)
+
+            try {
+                if (compress(MAX_QUALITY) <= maxBytes) {
+                    keepAttempt(MAX_QUALITY)
+                    return result()
+                }
+                val fitsAtLowestQuality = lowestQuality < MAX_QUALITY && compress(lowestQuality) <= maxBytes
+                keepAttempt(lowestQuality)
+                if (!fitsAtLowestQuality) {
+                    val minScale = MIN_DIMENSION.toDouble() / minOf(bitmap.width, bitmap.height)
+                    if (minScale >= 1) return result()
+
+                    image = scaled(minScale)
+                    compress(lowestQuality)
+                    keepAttempt(lowestQuality)
+                    if (best.size() > maxBytes) return result()
+
+                    // The largest scale at which the lowest quality fits, the size of each
+                    // attempt is only known by compressing it
+                    var low = minScale
+                    var high = 1.0
+                    repeat(SCALE_SEARCH_STEPS) {
+                        val scale = (low + high) / 2
+                        val candidate = scaled(scale)
+                        if (candidate === bitmap) {
+                            high = scale
+                        } else if (compress(lowestQuality, candidate) <= maxBytes) {
+                            keepAttempt(lowestQuality)
+                            release(image, pool)
+                            image = candidate
+                            low = scale
+                        } else {
+                            release(candidate, pool)
+                            high = scale
+                        }
+                    }
+                }
+
+                var low = lowestQuality + 1
+                var high = MAX_QUALITY - 1
+                while (low <= high) {
+                    val quality = (low + high) ushr 1
+                    if (compress(quality) <= maxBytes) {
+                        keepAttempt(quality)
+                        low = quality + 1
+                    } else {
+                        high = quality - 1
+                    }
+                }
+                return result()
+            } finally {
+                if (image !== bitmap) release(image, pool)
+            }
+        }
+
+        /** Returns true if the [format] ignores the quality. */
+        private fun isLossless(format: CompressFormat) = format == CompressFormat.PNG ||
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && format == CompressFormat.WEBP_LOSSLESS
 
         /** Prevents [quality] from being outside 0...100 range. */
         private fun sanitizeQuality(quality: Int) = quality.coerceAtLeast(0).coerceAtMost(100)
 
-        /** Re-sizes the [image] to fit a [maxWidth], [maxHeight] and keeping its aspect ratio. */
+        /**
+         * Re-sizes the [image] to fit a [maxWidth], [maxHeight] and keeping its aspect ratio.
+         * If a [pool] is given, the re-sized image is drawn into one of its bitmaps instead of
+         * allocating a new one.
+         * The [image] is also rotated and flipped as the given EXIF [orientation] says, in the
+         * same pass, and the [maxWidth] and [maxHeight] apply to the rotated image.
+         */
         @JvmStatic
-        fun fit(image: Bitmap, maxWidth: Int, maxHeight: Int): Bitmap {
-            val width = image.width
-            val height = image.height
-            if (maxWidth <= 0 || maxHeight <= 0 || width <= maxWidth && height <= maxHeight) {
+        @JvmOverloads
+        fun fit(
+            image: Bitmap,
+            maxWidth: Int,
+            maxHeight: Int,
+            pool: BitmapPool? = null,
+            orientation: Int = ExifInterface.ORIENTATION_NORMAL
+        ): Bitmap {
+            val transposed = isTransposed(orientation)
+            val width = if (transposed) image.height else image.width
+            val height = if (transposed) image.width else image.height
+            val matrix = getOrientationMatrix(orientation)
+            val fits = maxWidth <= 0 || maxHeight <= 0 || width <= maxWidth && height <= maxHeight
+            if (fits && matrix == null) {
                 return image
             }
-            val ratioImage = width.toFloat() / height.toFloat()
-            var finalWidth = maxWidth
-            var finalHeight = maxHeight
-            if (ratioImage > 1) {
-                finalHeight = (finalWidth.toFloat() / ratioImage).toInt()
+            var finalWidth = width
+            var finalHeight = height
+            if (!fits) {
+                val ratioImage = width.toFloat() / height.toFloat()
+                finalWidth = maxWidth
+                finalHeight = maxHeight
+                if (ratioImage > 1) {
+                    finalHeight = (finalWidth.toFloat() / ratioImage).toInt()
+                } else {
+                    finalWidth = (finalHeight.toFloat() * ratioImage).toInt()
+                }
+            }
+            val config = image.config ?: Bitmap.Config.ARGB_8888
+            val target = pool?.get(finalWidth, finalHeight, config) ?: if (matrix == null) {
+                return Bitmap.createScaledBitmap(image, finalWidth, finalHeight, true)
             } else {
-                finalWidth = (finalHeight.toFloat() * ratioImage).toInt()
+                Bitmap.createBitmap(finalWidth, finalHeight, config)
+            }
+            target.setHasAlpha(image.hasAlpha())
+            val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+            if (matrix == null) {
+                Canvas(target).drawBitmap(image, null, Rect(0, 0, finalWidth, finalHeight), paint)
+            } else {
+                // Moves the rotated image back to the origin and then scales it to the final size
+                val bounds = RectF(0f, 0f, image.width.toFloat(), image.height.toFloat())
+                matrix.mapRect(bounds)
+                matrix.postTranslate(-bounds.left, -bounds.top)
+                matrix.postScale(finalWidth.toFloat() / width, finalHeight.toFloat() / height)
+                Canvas(target).drawBitmap(image, matrix, paint)
+            }
+            return target
+        }
+
+        /** Returns true if the EXIF [orientation] swaps the width and height of the image. */
+        private fun isTransposed(orientation: Int) = when (orientation) {
+            ExifInterface.ORIENTATION_TRANSPOSE,
+            ExifInterface.ORIENTATION_ROTATE_90,
+            ExifInterface.ORIENTATION_TRANSVERSE,
+            ExifInterface.ORIENTATION_ROTATE_270 -> true
+            else -> false
+        }
+
+        /** Returns the [Matrix] that applies an EXIF [orientation], or null if there's nothing to apply. */
+        private fun getOrientationMatrix(orientation: Int) = when (orientation) {
+            ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> Matrix().apply { setScale(-1f, 1f) }
+            ExifInterface.ORIENTATION_ROTATE_180 -> Matrix().apply { setRotate(180f) }
+            ExifInterface.ORIENTATION_FLIP_VERTICAL -> Matrix().apply { setScale(1f, -1f) }
+            ExifInterface.ORIENTATION_TRANSPOSE -> Matrix().apply {
+                setRotate(90f)
+                postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_ROTATE_90 -> Matrix().apply { setRotate(90f) }
+            ExifInterface.ORIENTATION_TRANSVERSE -> Matrix().apply {
+                setRotate(-90f)
+                postScale(-1f, 1f)
             }
-            return Bitmap.createScaledBitmap(image, finalWidth, finalHeight, true)
+            ExifInterface.ORIENTATION_ROTATE_270 -> Matrix().apply { setRotate(-90f) }
+            else -> null
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+/**
+ * Typed key-value fields of a [LogRecord], logged with [WolmoLogger.event] or
+ * [TaggedLogger.event]. Values are kept unboxed and only formatted when a sink writes them,
+ * appending them to a [StringBuilder] with [appendLogfmt] or [appendJson].
+ *
+ * Instances are pooled: the ones attached to a record are recycled once every sink wrote it,
+ * so a sink that keeps the record must keep its [LogRecord.detach] copy instead.
+ */
+class LogFields private constructor(private val pooled: Boolean) {
+
+    private var keys = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var types = ByteArray(INITIAL_CAPACITY)
+    private var numbers = LongArray(INITIAL_CAPACITY)
+    private var strings = arrayOfNulls<String>(INITIAL_CAPACITY)
+
+    /** Number of fields. */
+    var size = 0
+        private set
+
+    fun int(key: String, value: Int) = add(key, TYPE_LONG, value.toLong(), null)
+
+    fun long(key: String, value: Long) = add(key, TYPE_LONG, value, null)
+
+    fun double(key: String, value: Double) = add(key, TYPE_DOUBLE, value.toRawBits(), null)
+
+    fun boolean(key: String, value: Boolean) = add(key, TYPE_BOOLEAN, if (value) 1 else 0, null)
+
+    fun string(key: String, value: String?) = add(key, TYPE_STRING, 0, value)
+
+    private fun add(key: String, type: Byte, number: Long, string: String?) {
+        if (size == keys.size) grow()
+        keys[size] = key
+        types[size] = type
+        numbers[size] = number
+        strings[size] = string
+        size++
+    }
+
+    private fun grow() {
+        val capacity = keys.size * 2
+        keys = keys.copyOf(capacity)
+        types = types.copyOf(capacity)
+        numbers = numbers.copyOf(capacity)
+        strings = strings.copyOf(capacity)
+    }
+
+    fun key(index: Int): String = keys[checkIndex(index)]!!
+
+    /** Returns the value of the field at [index], boxed. Prefer the append methods to format them. */
+    fun value(index: Int): Any? {
+        val number = numbers[checkIndex(index)]
+        return when (types[index]) {
+            TYPE_LONG -> number
+            TYPE_DOUBLE -> Double.fromBits(number)
+            TYPE_BOOLEAN -> number != 0L
+            else -> strings[index]
+        }
+    }
+
+    /** Returns the value of the last field with the [key], boxed, or null if there's none. */
+    operator fun get(key: String): Any? {
+        for (index in size - 1 downTo 0) {
+            if (keys[index] == key) return value(index)
+        }
+        return null
+    }
+
+    private fun checkIndex(index: Int): Int {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index, size $size")
+        return index
+    }
+
+    /** Appends the fields as logfmt, `key=value key="quoted value"`, to the [builder]. */
+    fun appendLogfmt(builder: StringBuilder): StringBuilder {
+        for (index in 0 until size) {
+            if (index > 0) builder.append(' ')
+            builder.append(keys[index]).append('=')
+            if (types[index] == TYPE_STRING) appendLogfmtString(builder, strings[index]) else appendNumber(builder, index, false)
+        }
+        return builder
+    }
+
+    /** Appends the fields as a JSON object to the [builder]. */
+    fun appendJson(builder: StringBuilder): StringBuilder {
+        builder.append('{')
+        for (index in 0 until size) {
+            if (index > 0) builder.append(',')
+            appendJsonString(builder, keys[index])
+            builder.append(':')
+            if (types[index] == TYPE_STRING) appendJsonString(builder, strings[index]) else appendNumber(builder, index, true)
+        }
+        return builder.append('}')
+    }
+
+    private fun appendNumber(builder: StringBuilder, index: Int, json: Boolean) {
+        val number = numbers[index]
+        when (types[index]) {
+            TYPE_LONG -> builder.append(number)
+            TYPE_BOOLEAN -> builder.append(number != 0L)
+            else -> {
+                val value = Double.fromBits(number)
+                // JSON has no NaN nor infinities
+                if (json && !value.isFinite()) builder.append('"').append(value).append('"') else builder.append(value)
+            }
+        }
+    }
+
+    private fun appendLogfmtString(builder: StringBuilder, value: String?) {
+        if (value == null) {
+            builder.append(NULL)
+            return
+        }
+        val quoted = value.isEmpty() || value.any { it <= ' ' || it == '=' || it == '"' }
+        if (!quoted) {
+            builder.append(value)
+            return
+        }
+        builder.append('"')
+        value.forEach { char ->
+            when (char) {
+                '"', '\\' -> builder.append('\\').append(char)
+                '\n' -> builder.append("\\n")
+                else -> builder.append(char)
+            }
+        }
+        builder.append('"')
+    }
+
+    private fun appendJsonString(builder: StringBuilder, value: String?) {
+        if (value == null) {
+            builder.append(NULL)
+            return
+        }
+        builder.append('"')
+        value.forEach { char ->
+            when {
+                char == '"' || char == '\\' -> builder.append('\\').append(char)
+                char == '\n' -> builder.append("\\n")
+                char == '\r' -> builder.append("\\r")
+                char == '\t' -> builder.append("\\t")
+                char < ' ' -> builder.append("\\u00").append(Character.forDigit(char.code shr 4, 16))
+                    .append(Character.forDigit(char.code and 0xF, 16))
+                else -> builder.append(char)
+            }
+        }
+        builder.append('"')
+    }
+
+    /** Returns a copy that is not pooled, to keep the fields after the record is written. */
+    fun copy(): LogFields = LogFields(false).also { copy ->
+        for (index in 0 until size) copy.add(keys[index]!!, types[index], numbers[index], strings[index])
+    }
+
+    /** Returns the fields to the pool, if they came from it. They must not be used afterwards. */
+    internal fun recycle() {
+        if (!pooled) return
+        keys.fill(null, 0, size)
+        strings.fill(null, 0, size)
+        size = 0
+        pool.offer(this)
+    }
+
+    override fun toString() = appendLogfmt(StringBuilder()).toString()
+
+    companion object {
+
+        private const val INITIAL_CAPACITY = 8
+        private const val POOL_SIZE = 64
+        private const val NULL = "null"
+        private const val TYPE_LONG: Byte = 0
+        private const val TYPE_DOUBLE: Byte = 1
+        private const val TYPE_BOOLEAN: Byte = 2
+        private const val TYPE_STRING: Byte = 3
+
+        private val pool = BoundedLogQueue<LogFields>(POOL_SIZE)
+
+        /** Returns empty fields from the pool, or new ones if it's empty. */
+        @PublishedApi
+        internal fun obtain(): LogFields = pool.poll() ?: LogFields(true)
+
+        /** Returns empty fields that are not pooled, for example to build a [LogRecord] by hand. */
+        @JvmStatic
+        fun create(): LogFields = LogFields(false)
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * A message logged through [WolmoLogger], with the [Log] priority [level] it was logged at
+ * and its [fields], if it was logged as an event. The fields may be pooled, see [detach].
+ */
+data class LogRecord @JvmOverloads constructor(
+    val level: Int,
+    val tag: String,
+    val message: String,
+    val throwable: Throwable?,
+    val timeMillis: Long,
+    val threadName: String,
+    val fields: LogFields? = null
+) {
+
+    /**
+     * Returns the record with a copy of its [fields] that is not pooled. A [LogSink] must keep
+     * this copy instead of the record it was given, whose fields are reused once written.
+     */
+    fun detach(): LogRecord = if (fields == null) this else copy(fields = fields.copy())
+
+    /** Appends the [message] and then the [fields] as logfmt, if it has any, to the [builder]. */
+    fun appendMessage(builder: StringBuilder): StringBuilder {
+        builder.append(message)
+        if (fields != null && fields.size > 0) fields.appendLogfmt(builder.append(' '))
+        return builder
+    }
+
+    /** Returns the record as a logcat line, with its stack trace if it has a [throwable]. */
+    fun format(dateFormat: SimpleDateFormat = SimpleDateFormat(DATE_PATTERN, Locale.US)): String {
+        val line = StringBuilder().append(dateFormat.format(Date(timeMillis))).append(' ')
+            .append(levelLetter(level)).append('/').append(tag).append(" [").append(threadName).append("]: ")
+        appendMessage(line).append('\n')
+        if (throwable != null) {
+            val stackTrace = StringWriter()
+            throwable.printStackTrace(PrintWriter(stackTrace))
+            line.append(stackTrace)
+        }
+        return line.toString()
+    }
+
+    companion object {
+
+        const val DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS"
+
+        /** Returns the letter logcat uses for the [Log] priority [level]. */
+        @JvmStatic
+        fun levelLetter(level: Int) = when (level) {
+            Log.VERBOSE -> 'V'
+            Log.DEBUG -> 'D'
+            Log.INFO -> 'I'
+            Log.WARN -> 'W'
+            Log.ERROR -> 'E'
+            else -> 'A'
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+/**
+ * Destination of the [LogRecord]s of an [AsyncLogPipeline]. Every method is called from
+ * the pipeline writer thread only, so implementations don't need to be thread safe.
+ * The records are only valid during [write], keep their [LogRecord.detach] copy instead.
+ */
+interface LogSink {
+
+    /** Returns whether the sink writes the [record], before its fields are formatted. */
+    fun accepts(record: LogRecord) = true
+
+    fun write(record: LogRecord)
+
+    /** Called when there are no more records to write for now. */
+    fun flush() {}
+
+    /** Called once when the pipeline is closed. */
+    fun close() {}
+}
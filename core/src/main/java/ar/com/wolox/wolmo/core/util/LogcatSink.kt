@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+
+/** [LogSink] that writes to logcat. [WolmoLogger] uses it directly when it has no pipeline. */
+object LogcatSink : LogSink {
+
+    override fun write(record: LogRecord) {
+        val message = if (record.fields == null) record.message else record.appendMessage(StringBuilder()).toString()
+        write(record.level, record.tag, message, record.throwable)
+    }
+
+    fun write(level: Int, tag: String, message: String, throwable: Throwable?) {
+        when (level) {
+            Log.VERBOSE -> Log.v(tag, message, throwable)
+            Log.DEBUG -> Log.d(tag, message, throwable)
+            Log.INFO -> Log.i(tag, message, throwable)
+            Log.WARN -> Log.w(tag, message, throwable)
+            Log.ERROR -> Log.e(tag, message, throwable)
+            else -> Log.wtf(tag, message, throwable)
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import java.io.File
+import java.io.PrintWriter
+import java.io.RandomAccessFile
+import java.io.StringWriter
+import java.nio.BufferOverflowException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.CodingErrorAction
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * [LogSink] that writes the records in a compact binary format to a ring of [segmentCount]
+ * memory mapped files of [segmentBytes] inside the [directory]. Writing a record is a memory
+ * copy, the system writes the pages to disk. They survive the process crashing as soon as
+ * they are written, set [forceOnFlush] to also survive the device shutting down abruptly.
+ * When every segment is full, the oldest one is reused. A new sink keeps writing after the
+ * records of the newest segment, so restarting the process doesn't use up a segment and the
+ * logs of a previous crash are kept until the ring wraps around. Read them with [export].
+ * Records still queued in an [AsyncLogPipeline] are lost on a crash, flush it from the
+ * uncaught exception handler to keep them.
+ *
+ * Each segment starts with a header with a magic number and its sequence number, then the
+ * records. Each record is its length, 0 marking the end of the segment, and then either a
+ * tag definition, its id and name, or an entry: time, level, tag id and message, with the
+ * fields of the record as logfmt. The length is written last, so a record cut short by a
+ * crash is ignored. A message that doesn't fit in an empty segment is cut short.
+ */
+class MappedLogSink @JvmOverloads constructor(
+    private val directory: File,
+    private val segmentBytes: Int = DEFAULT_SEGMENT_BYTES,
+    private val segmentCount: Int = DEFAULT_SEGMENT_COUNT,
+    private val forceOnFlush: Boolean = false
+) : LogSink {
+
+    init {
+        require(segmentBytes >= MIN_SEGMENT_BYTES) { "Segments must have at least $MIN_SEGMENT_BYTES bytes" }
+        require(segmentCount > 0) { "There must be at least one segment" }
+    }
+
+    private val encoder = Charsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+    /** Ids of the tags defined in the current segment. */
+    private val tagIds = HashMap<String, Int>()
+
+    /** The current segment, its limit leaves room for the end marker. */
+    private var segment: ByteBuffer? = null
+
+    /** Same content as [segment] without its limit, to write the lengths and end markers. */
+    private var mapped: MappedByteBuffer? = null
+    private var segmentIndex = -1
+    private var sequence = 0L
+
+    /** Reused to build the message with its fields, encoded without copying it to a string. */
+    private val message = StringBuilder()
+
+    override fun write(record: LogRecord) {
+        message.setLength(0)
+        record.appendMessage(message)
+        record.throwable?.let { message.append('\n').append(stackTraceOf(it)) }
+        if (segment == null || !append(record, message, false)) {
+            nextSegment()
+            append(record, message, true)
+        }
+    }
+
+    /** Writes the [record], cutting its message short if [truncate], returning whether it fit. */
+    private fun append(record: LogRecord, message: CharSequence, truncate: Boolean): Boolean {
+        val tagId = tagIds[record.tag] ?: defineTag(record.tag, truncate) ?: return false
+        return appendRecord(truncate) { buffer ->
+            buffer.put(TYPE_ENTRY)
+            buffer.putLong(record.timeMillis)
+            buffer.put(record.level.toByte())
+            buffer.putShort(tagId.toShort())
+            encode(message, buffer)
+        }
+    }
+
+    private fun defineTag(tag: String, truncate: Boolean): Int? {
+        if (tagIds.size == MAX_TAGS) return null
+        val tagId = tagIds.size
+        val defined = appendRecord(truncate) { buffer ->
+            buffer.put(TYPE_TAG)
+            buffer.putShort(tagId.toShort())
+            encode(tag, buffer)
+        }
+        if (!defined) return null
+        tagIds[tag] = tagId
+        return tagId
+    }
+
+    /** Returns whether the whole text fit. */
+    private fun encode(text: CharSequence, buffer: ByteBuffer): Boolean {
+        encoder.reset()
+        val overflow = encoder.encode(CharBuffer.wrap(text), buffer, true).isOverflow
+        return !overflow && !encoder.flush(buffer).isOverflow
+    }
+
+    private inline fun appendRecord(truncate: Boolean, body: (ByteBuffer) -> Boolean): Boolean {
+        val buffer = segment!!
+        val start = buffer.position()
+        val fits = try {
+            buffer.position(start + LENGTH_BYTES)
+            body(buffer)
+        } catch (e: IllegalArgumentException) {
+            // Not even room for the length
+            buffer.position(start)
+            return false
+        } catch (e: BufferOverflowException) {
+            // Not even room for the fixed size fields
+            buffer.position(start)
+            return false
+        }
+        if (!fits && !truncate) {
+            buffer.position(start)
+            return false
+        }
+        val end = buffer.position()
+        mapped!!.putInt(end, 0)
+        mapped!!.putInt(start, end - start - LENGTH_BYTES)
+        return true
+    }
+
+    private fun nextSegment() {
+        if (segment == null) {
+            directory.mkdirs()
+            // Continues the newest segment left by a previous process
+            readHeaders(directory).maxByOrNull { it.sequence }?.let {
+                segmentIndex = it.index
+                sequence = it.sequence
+                if (resumeSegment()) return
+            }
+        }
+        segmentIndex = (segmentIndex + 1) % segmentCount
+        sequence++
+        val mapped = mapSegment()
+        mapped.putInt(HEADER_BYTES, 0)
+        mapped.putInt(0, MAGIC)
+        mapped.putLong(Int.SIZE_BYTES, sequence)
+        tagIds.clear()
+        useSegment(mapped, HEADER_BYTES)
+    }
+
+    /**
+     * Maps the current segment and moves after its last complete record, defining its tags
+     * again. Returns false if it was written with another [segmentBytes].
+     */
+    private fun resumeSegment(): Boolean {
+        if (segmentFile(directory, segmentIndex).length() != segmentBytes.toLong()) return false
+        val mapped = mapSegment()
+        val limit = segmentBytes - LENGTH_BYTES
+        var offset = HEADER_BYTES
+        tagIds.clear()
+        while (offset <= limit - LENGTH_BYTES) {
+            val length = mapped.getInt(offset)
+            if (length <= 0 || length > limit - offset - LENGTH_BYTES) break
+            val end = offset + LENGTH_BYTES + length
+            val record = mapped.duplicate().apply { position(offset + LENGTH_BYTES) }
+            if (record.get() == TYPE_TAG) {
+                val tagId = record.short.toInt()
+                tagIds[decode(record, end)] = tagId
+            }
+            offset = end
+        }
+        // Drops what a crash left after the last complete record
+        mapped.putInt(offset, 0)
+        useSegment(mapped, offset)
+        return true
+    }
+
+    private fun mapSegment(): MappedByteBuffer = RandomAccessFile(segmentFile(directory, segmentIndex), "rw").use {
+        it.channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes.toLong())
+    }
+
+    private fun useSegment(mapped: MappedByteBuffer, start: Int) {
+        this.mapped = mapped
+        segment = mapped.duplicate().apply {
+            limit(segmentBytes - LENGTH_BYTES)
+            position(start)
+        }
+    }
+
+    override fun flush() {
+        if (forceOnFlush) mapped?.force()
+    }
+
+    override fun close() {
+        mapped?.force()
+        mapped = null
+        segment = null
+    }
+
+    private class SegmentHeader(val index: Int, val sequence: Long)
+
+    companion object {
+
+        private const val MAGIC = 0x574C4F47
+        private const val FILE_FORMAT = "segment.%d.bin"
+        private const val DEFAULT_EXPORT_NAME = "logs.txt"
+        private const val HEADER_BYTES = Int.SIZE_BYTES + Long.SIZE_BYTES
+        private const val LENGTH_BYTES = Int.SIZE_BYTES
+        private const val MIN_SEGMENT_BYTES = 1024
+        private const val DEFAULT_SEGMENT_BYTES = 256 * 1024
+        private const val DEFAULT_SEGMENT_COUNT = 4
+        private const val MAX_TAGS = 0x7FFF
+        private const val TYPE_ENTRY: Byte = 1
+        private const val TYPE_TAG: Byte = 2
+
+        private val SEGMENT_NAME = Regex("segment\\.\\d+\\.bin")
+
+        private fun segmentFile(directory: File, index: Int) = File(directory, FILE_FORMAT.format(index))
+
+        private fun segmentFiles(directory: File) =
+            directory.listFiles { file -> file.name.matches(SEGMENT_NAME) }.orEmpty()
+
+        private fun readHeaders(directory: File): List<SegmentHeader> = segmentFiles(directory).mapNotNull { file ->
+            RandomAccessFile(file, "r").use {
+                if (it.length() < HEADER_BYTES || it.readInt() != MAGIC) return@mapNotNull null
+                val index = file.name.substringAfter('.').substringBefore('.').toInt()
+                SegmentHeader(index, it.readLong())
+            }
+        }
+
+        private fun stackTraceOf(throwable: Throwable) = StringWriter().also {
+            throwable.printStackTrace(PrintWriter(it))
+        }.toString()
+
+        /**
+         * Decodes every record written by a [MappedLogSink] to the [directory], oldest first,
+         * and writes them to the [output] as text, one logcat-like line per record.
+         * Call it when the sink is closed, or from another process for a bug report.
+         */
+        @JvmStatic
+        fun export(directory: File, output: Appendable) {
+            val dateFormat = SimpleDateFormat(LogRecord.DATE_PATTERN, Locale.US)
+            readHeaders(directory).sortedBy { it.sequence }.forEach { header ->
+                val buffer = RandomAccessFile(segmentFile(directory, header.index), "r").use {
+                    it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+                }
+                exportSegment(buffer, dateFormat, output)
+            }
+        }
+
+        private fun exportSegment(buffer: ByteBuffer, dateFormat: SimpleDateFormat, output: Appendable) {
+            val tags = HashMap<Short, String>()
+            buffer.position(HEADER_BYTES)
+            while (buffer.remaining() >= LENGTH_BYTES) {
+                val length = buffer.int
+                if (length <= 0 || length > buffer.remaining()) return
+                val end = buffer.position() + length
+                when (buffer.get()) {
+                    TYPE_TAG -> {
+                        val tagId = buffer.short
+                        tags[tagId] = decode(buffer, end)
+                    }
+                    TYPE_ENTRY -> {
+                        val time = buffer.long
+                        val level = buffer.get().toInt()
+                        val tag = tags[buffer.short].orEmpty()
+                        output.append(dateFormat.format(Date(time))).append(' ')
+                            .append(LogRecord.levelLetter(level)).append('/').append(tag).append(": ")
+                            .append(decode(buffer, end)).append('\n')
+                    }
+                    else -> return
+                }
+                buffer.position(end)
+            }
+        }
+
+        private fun decode(buffer: ByteBuffer, end: Int): String {
+            val bytes = ByteArray(end - buffer.position())
+            buffer.get(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        /** Same as [export], to a text file, by default inside the [directory]. */
+        @JvmStatic
+        @JvmOverloads
+        fun exportToFile(directory: File, file: File = File(directory, DEFAULT_EXPORT_NAME)): File {
+            file.bufferedWriter().use { export(directory, it) }
+            return file
+        }
+    }
+}
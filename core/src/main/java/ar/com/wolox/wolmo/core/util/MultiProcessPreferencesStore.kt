@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.os.FileObserver
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.Serializer
+import androidx.datastore.preferences.PreferencesProto.PreferenceMap
+import androidx.datastore.preferences.PreferencesProto.StringSet
+import androidx.datastore.preferences.PreferencesProto.Value
+import androidx.datastore.preferences.core.Preferences
+import androidx.datastore.preferences.core.booleanPreferencesKey
+import androidx.datastore.preferences.core.doublePreferencesKey
+import androidx.datastore.preferences.core.emptyPreferences
+import androidx.datastore.preferences.core.floatPreferencesKey
+import androidx.datastore.preferences.core.intPreferencesKey
+import androidx.datastore.preferences.core.longPreferencesKey
+import androidx.datastore.preferences.core.mutablePreferencesOf
+import androidx.datastore.preferences.core.stringPreferencesKey
+import androidx.datastore.preferences.core.stringSetPreferencesKey
+import androidx.datastore.preferences.protobuf.InvalidProtocolBufferException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onSubscription
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * [Preferences] [DataStore] that can be shared by many processes of the app.
+ * Every access takes a lock on a sibling `.lock` file, shared to read and exclusive to
+ * write, and writes replace the [file] atomically. Changes made by other processes are
+ * noticed with a [FileObserver], so [data] emits them too.
+ * Unlike the single process DataStore it doesn't keep the data in memory, so every read
+ * goes to disk. Use it only when more than one process needs the values.
+ */
+class MultiProcessPreferencesStore internal constructor(
+    private val file: File,
+    private val watchFile: Boolean
+) : DataStore<Preferences> {
+
+    constructor(file: File) : this(file, true)
+
+    private val lockFile = File(file.parentFile, "${file.name}$LOCK_EXTENSION")
+    private val tmpFile = File(file.parentFile, "${file.name}$TMP_EXTENSION")
+
+    /** File locks are held by the process, so threads of the same process also need a mutex. */
+    private val processMutex = mutexes.getOrPut(file.absolutePath) { Mutex() }
+
+    /** Changes made by this process, notified without waiting for the [FileObserver]. */
+    private val localChanges = MutableSharedFlow<Unit>(
+        extraBufferCapacity = 1,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /** [CoroutineContext] where the file is read and written. */
+    var ioContext: CoroutineContext = Dispatchers.IO
+
+    override val data: Flow<Preferences>
+        get() {
+            // The first read happens once subscribed, so no change is missed
+            val changes = localChanges.onSubscription { emit(Unit) }
+            return (if (watchFile) merge(fileChanges(), changes) else changes)
+                .buffer(Channel.CONFLATED)
+                .map { read() }
+                .distinctUntilChanged()
+        }
+
+    override suspend fun updateData(transform: suspend (t: Preferences) -> Preferences): Preferences {
+        val updated = withContext(ioContext) {
+            processMutex.withLock {
+                withFileLock(shared = false) {
+                    val current = readUnlocked()
+                    val updated = transform(current).toPreferences()
+                    if (updated != current) writeUnlocked(updated)
+                    updated
+                }
+            }
+        }
+        localChanges.tryEmit(Unit)
+        return updated
+    }
+
+    private suspend fun read(): Preferences = withContext(ioContext) {
+        processMutex.withLock {
+            withFileLock(shared = true) { readUnlocked() }
+        }
+    }
+
+    private suspend fun readUnlocked(): Preferences {
+        if (!file.exists()) return emptyPreferences()
+        return FileInputStream(file).use { PreferencesFileSerializer.readFrom(it) }
+    }
+
+    private suspend fun writeUnlocked(preferences: Preferences) {
+        FileOutputStream(tmpFile).use {
+            PreferencesFileSerializer.writeTo(preferences, it)
+            it.fd.sync()
+        }
+        if (!tmpFile.renameTo(file)) throw IOException("Unable to rename $tmpFile to $file")
+    }
+
+    private inline fun <T> withFileLock(shared: Boolean, block: () -> T): T {
+        file.parentFile?.mkdirs()
+        return RandomAccessFile(lockFile, "rw").use { lock ->
+            val fileLock = lock.channel.lock(0L, Long.MAX_VALUE, shared)
+            try {
+                block()
+            } finally {
+                fileLock.release()
+            }
+        }
+    }
+
+    /** Emits every time the [file] is replaced, by this or any other process. */
+    @Suppress("DEPRECATION")
+    private fun fileChanges(): Flow<Unit> = callbackFlow {
+        val parent = file.parentFile ?: File(".")
+        parent.mkdirs()
+        val observer = object : FileObserver(parent.absolutePath, FileObserver.MOVED_TO or FileObserver.CLOSE_WRITE) {
+            override fun onEvent(event: Int, path: String?) {
+                if (path == file.name) trySend(Unit)
+            }
+        }
+        observer.startWatching()
+        awaitClose { observer.stopWatching() }
+    }.flowOn(ioContext)
+
+    companion object {
+        private const val LOCK_EXTENSION = ".lock"
+        private const val TMP_EXTENSION = ".tmp"
+        private val mutexes = ConcurrentHashMap<String, Mutex>()
+    }
+}
+
+/**
+ * Reads and writes [Preferences] in the same format as the single process DataStore, so
+ * both can open the same file. The DataStore serializer is internal, so this one is built
+ * over the public [PreferenceMap] proto.
+ */
+internal object PreferencesFileSerializer : Serializer<Preferences> {
+
+    override val defaultValue: Preferences
+        get() = emptyPreferences()
+
+    override suspend fun readFrom(input: InputStream): Preferences {
+        val preferenceMap = try {
+            PreferenceMap.parseFrom(input)
+        } catch (e: InvalidProtocolBufferException) {
+            throw CorruptionException("Unable to parse preferences proto.", e)
+        }
+        val preferences = mutablePreferencesOf()
+        preferenceMap.preferencesMap.forEach { (name, value) ->
+            when (value.valueCase) {
+                Value.ValueCase.BOOLEAN -> preferences[booleanPreferencesKey(name)] = value.boolean
+                Value.ValueCase.FLOAT -> preferences[floatPreferencesKey(name)] = value.float
+                Value.ValueCase.DOUBLE -> preferences[doublePreferencesKey(name)] = value.double
+                Value.ValueCase.INTEGER -> preferences[intPreferencesKey(name)] = value.integer
+                Value.ValueCase.LONG -> preferences[longPreferencesKey(name)] = value.long
+                Value.ValueCase.STRING -> preferences[stringPreferencesKey(name)] = value.string
+                Value.ValueCase.STRING_SET ->
+                    preferences[stringSetPreferencesKey(name)] = value.stringSet.stringsList.toSet()
+                Value.ValueCase.VALUE_NOT_SET, null -> throw CorruptionException("Value not set.")
+            }
+        }
+        return preferences.toPreferences()
+    }
+
+    override suspend fun writeTo(t: Preferences, output: OutputStream) {
+        val preferenceMap = PreferenceMap.newBuilder()
+        t.asMap().forEach { (key, value) -> preferenceMap.putPreferences(key.name, value.toProto()) }
+        preferenceMap.build().writeTo(output)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun Any.toProto(): Value = when (this) {
+        is Boolean -> Value.newBuilder().setBoolean(this).build()
+        is Float -> Value.newBuilder().setFloat(this).build()
+        is Double -> Value.newBuilder().setDouble(this).build()
+        is Int -> Value.newBuilder().setInteger(this).build()
+        is Long -> Value.newBuilder().setLong(this).build()
+        is String -> Value.newBuilder().setString(this).build()
+        is Set<*> -> Value.newBuilder().setStringSet(StringSet.newBuilder().addAllStrings(this as Set<String>)).build()
+        else -> throw IllegalStateException("Unsupported preference type: ${javaClass.name}")
+    }
+}
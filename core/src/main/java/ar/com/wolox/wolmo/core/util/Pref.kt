@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+/**
+ * Key of a [SharedPreferencesManager] value of type [T], with its [default] value.
+ * Declare it once and use it instead of repeating the [key] and the [default] value
+ * on every call. Reading it through [SharedPreferencesManager.get] is cached until
+ * its key changes. Each [SharedPreferencesManager] keeps its own cache.
+ */
+sealed class Pref<T>(val key: String, val default: T)
+
+class IntPref(key: String, default: Int = 0) : Pref<Int>(key, default)
+
+class LongPref(key: String, default: Long = 0L) : Pref<Long>(key, default)
+
+class FloatPref(key: String, default: Float = 0f) : Pref<Float>(key, default)
+
+class BooleanPref(key: String, default: Boolean = false) : Pref<Boolean>(key, default)
+
+class StringPref(key: String, default: String? = null) : Pref<String?>(key, default)
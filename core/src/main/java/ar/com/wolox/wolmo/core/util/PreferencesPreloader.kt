@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.app.Activity
+import android.content.Context
+import android.os.SystemClock
+import android.os.Trace
+import androidx.annotation.WorkerThread
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Loads [android.content.SharedPreferences] files and the [DataStoreManager] store in
+ * background, so the first read from the main thread doesn't wait for the disk.
+ * Used by [ar.com.wolox.wolmo.core.WolmoApplication] at start.
+ */
+class PreferencesPreloader(private val context: Context) {
+
+    /** [CoroutineContext] where [preload] runs. */
+    var ioContext: CoroutineContext = Dispatchers.IO
+
+    /**
+     * Loads the [SharedPreferences][android.content.SharedPreferences] files named
+     * [preferenceNames] and, if given, the store of the [dataStoreManager]. Pass the injected
+     * one, a new [DataStoreManager] would open the same file again.
+     * Each step is traced as a [Trace] section and logged with its duration.
+     */
+    suspend fun preload(
+        preferenceNames: Collection<String>,
+        dataStoreManager: DataStoreManager?
+    ) = withContext(ioContext) {
+        preloadSharedPreferences(preferenceNames)
+        if (dataStoreManager != null) {
+            val start = SystemClock.elapsedRealtime()
+            dataStoreManager.preload()
+            logger.info { "DataStore preloaded in ${SystemClock.elapsedRealtime() - start} ms" }
+        }
+    }
+
+    @WorkerThread
+    fun preloadSharedPreferences(preferenceNames: Collection<String>) {
+        preferenceNames.forEach { name ->
+            Trace.beginSection(TRACE_SECTION)
+            val start = SystemClock.elapsedRealtime()
+            try {
+                // Any read waits for the file to be loaded
+                context.getSharedPreferences(name, Activity.MODE_PRIVATE).contains(name)
+            } finally {
+                Trace.endSection()
+            }
+            logger.info { "SharedPreferences $name preloaded in ${SystemClock.elapsedRealtime() - start} ms" }
+        }
+    }
+
+    companion object {
+        private const val TRACE_SECTION = "WolmoPreloadSharedPreferences"
+        private val logger = WolmoLogger.forClass<PreferencesPreloader>()
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+/**
+ * [LogSink] that keeps the last [capacity] records in memory, for example to attach them to a
+ * bug report. Unlike the other sinks it can be read from any thread.
+ */
+class RingBufferSink(private val capacity: Int) : LogSink {
+
+    init {
+        require(capacity > 0) { "The capacity must be positive" }
+    }
+
+    private val records = arrayOfNulls<LogRecord>(capacity)
+    private var next = 0
+    private var size = 0
+
+    @Synchronized
+    override fun write(record: LogRecord) {
+        records[next] = record.detach()
+        next = (next + 1) % capacity
+        if (size < capacity) size++
+    }
+
+    /** Returns the kept records, oldest first. */
+    @Synchronized
+    fun snapshot(): List<LogRecord> = List(size) { records[(next - size + it + capacity) % capacity]!! }
+
+    @Synchronized
+    fun clear() {
+        records.fill(null)
+        next = 0
+        size = 0
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.text.SimpleDateFormat
+import java.util.Locale
+
+/**
+ * [LogSink] that writes the records as text to files inside the [directory]. Once the
+ * current file reaches about [maxFileBytes] it's rotated, keeping at most [maxFiles] files.
+ * The current file is `wolmo.0.log`, the older ones have greater numbers.
+ */
+class RollingFileSink @JvmOverloads constructor(
+    private val directory: File,
+    private val maxFileBytes: Long = DEFAULT_MAX_FILE_BYTES,
+    private val maxFiles: Int = DEFAULT_MAX_FILES
+) : LogSink {
+
+    private val dateFormat = SimpleDateFormat(LogRecord.DATE_PATTERN, Locale.US)
+    private var writer: BufferedWriter? = null
+    private var currentBytes = 0L
+
+    /** Returns the log files, newest first. */
+    val files: List<File>
+        get() = (0 until maxFiles).map(::fileAt).filter { it.exists() }
+
+    override fun write(record: LogRecord) {
+        val text = record.format(dateFormat)
+        try {
+            val writer = writer ?: open()
+            writer.write(text)
+            currentBytes += text.length
+            if (currentBytes >= maxFileBytes) rotate()
+        } catch (e: IOException) {
+            // Logging must never crash the app, the record is lost
+            close()
+        }
+    }
+
+    override fun flush() {
+        try {
+            writer?.flush()
+        } catch (e: IOException) {
+            close()
+        }
+    }
+
+    override fun close() {
+        try {
+            writer?.close()
+        } catch (e: IOException) {
+            // Nothing else to do
+        }
+        writer = null
+    }
+
+    private fun open(): BufferedWriter {
+        directory.mkdirs()
+        val file = fileAt(0)
+        currentBytes = file.length()
+        return BufferedWriter(OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8)).also { writer = it }
+    }
+
+    private fun rotate() {
+        close()
+        fileAt(maxFiles - 1).delete()
+        for (index in maxFiles - 2 downTo 0) {
+            fileAt(index).renameTo(fileAt(index + 1))
+        }
+        currentBytes = 0
+    }
+
+    private fun fileAt(index: Int) = File(directory, FILE_FORMAT.format(index))
+
+    companion object {
+        private const val FILE_FORMAT = "wolmo.%d.log"
+        private const val DEFAULT_MAX_FILE_BYTES = 512L * 1024
+        private const val DEFAULT_MAX_FILES = 4
+    }
+}
@@ -22,36 +22,302 @@
 package ar.com.wolox.wolmo.core.util
 
 import android.content.SharedPreferences
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
 
 import javax.inject.Inject
 
 /**
  * Utility class to query and store values in [SharedPreferences].
+ * Every store is applied with its own [SharedPreferences.Editor] unless it's done inside
+ * [edit] or the write-back mode is enabled with [enableWriteBack].
  */
 class SharedPreferencesManager @Inject constructor(private val sharedPreferences: SharedPreferences) {
 
-    fun store(key: String, value: String?) = sharedPreferences.edit().putString(key, value).apply()
+    /** Values stored in write-back mode and not yet applied, [REMOVED] marks the removed keys. */
+    private val pendingValues = HashMap<String, Any>()
+    private var writeBackScope: CoroutineScope? = null
+    private var writeBackDelayMillis = 0L
+    private var writeBackJob: Job? = null
 
-    fun store(key: String, value: Int) = sharedPreferences.edit().putInt(key, value).apply()
+    /**
+     * Whether [pendingValues] may have entries, so reads only take its lock in write-back mode.
+     * Only cleared after the pending values are applied to the [sharedPreferences].
+     */
+    @Volatile
+    private var hasPendingValues = false
 
-    fun store(key: String, value: Float) = sharedPreferences.edit().putFloat(key, value).apply()
+    /**
+     * Values read through [Pref]s by key. A write replaces the entry of its key with a new
+     * stale marker, so a value read concurrently with it can't be cached afterwards.
+     */
+    private val prefValues = ConcurrentHashMap<String, Any>()
 
-    fun store(key: String, value: Boolean) = sharedPreferences.edit().putBoolean(key, value).apply()
+    /** Kept as a field, [SharedPreferences] only holds weak references to its listeners. */
+    private val changeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+        // A null key means the preferences were cleared
+        if (key != null) invalidate(key) else prefValues.keys.forEach(::invalidate)
+    }
 
-    fun store(key: String, value: Long) = sharedPreferences.edit().putLong(key, value).apply()
+    private val changeListenerRegistration = lazy {
+        sharedPreferences.registerOnSharedPreferenceChangeListener(changeListener)
+    }
 
-    operator fun get(key: String, defValue: String?): String? = sharedPreferences.getString(key, defValue)
+    fun store(key: String, value: String?) = save(key, value ?: REMOVED)
 
-    operator fun get(key: String, defValue: Int): Int = sharedPreferences.getInt(key, defValue)
+    fun store(key: String, value: Int) = save(key, value)
 
-    operator fun get(key: String, defValue: Float): Float = sharedPreferences.getFloat(key, defValue)
+    fun store(key: String, value: Float) = save(key, value)
 
-    operator fun get(key: String, defValue: Boolean): Boolean = sharedPreferences.getBoolean(key, defValue)
+    fun store(key: String, value: Boolean) = save(key, value)
 
-    operator fun get(key: String, defValue: Long): Long = sharedPreferences.getLong(key, defValue)
+    fun store(key: String, value: Long) = save(key, value)
 
-    fun clearKey(key: String) = sharedPreferences.edit().remove(key).apply()
+    operator fun get(key: String, defValue: String?): String? = read(key, defValue) {
+        sharedPreferences.getString(key, defValue)
+    }
 
-    fun keyExists(key: String): Boolean = sharedPreferences.contains(key)
+    operator fun get(key: String, defValue: Int): Int = read(key, defValue) { sharedPreferences.getInt(key, defValue) }
 
+    operator fun get(key: String, defValue: Float): Float = read(key, defValue) {
+        sharedPreferences.getFloat(key, defValue)
+    }
+
+    operator fun get(key: String, defValue: Boolean): Boolean = read(key, defValue) {
+        sharedPreferences.getBoolean(key, defValue)
+    }
+
+    operator fun get(key: String, defValue: Long): Long = read(key, defValue) { sharedPreferences.getLong(key, defValue) }
+
+    fun store(pref: IntPref, value: Int) = store(pref.key, value)
+
+    fun store(pref: LongPref, value: Long) = store(pref.key, value)
+
+    fun store(pref: FloatPref, value: Float) = store(pref.key, value)
+
+    fun store(pref: BooleanPref, value: Boolean) = store(pref.key, value)
+
+    fun store(pref: StringPref, value: String?) = store(pref.key, value)
+
+    operator fun get(pref: IntPref): Int = cached(pref) { get(pref.key, pref.default) }
+
+    operator fun get(pref: LongPref): Long = cached(pref) { get(pref.key, pref.default) }
+
+    operator fun get(pref: FloatPref): Float = cached(pref) { get(pref.key, pref.default) }
+
+    operator fun get(pref: BooleanPref): Boolean = cached(pref) { get(pref.key, pref.default) }
+
+    operator fun get(pref: StringPref): String? = cached(pref) { get(pref.key, pref.default) }
+
+    fun clearKey(key: String) = save(key, REMOVED)
+
+    fun clearKey(pref: Pref<*>) = clearKey(pref.key)
+
+    fun keyExists(key: String): Boolean {
+        if (hasPendingValues) {
+            synchronized(pendingValues) {
+                pendingValues[key]?.let { return it !== REMOVED }
+            }
+        }
+        return sharedPreferences.contains(key)
+    }
+
+    /**
+     * Stores every value of the [block] with a single [SharedPreferences.Editor], so they are
+     * written to disk once. For example:
+     * ```
+     * edit {
+     *     store("name", name)
+     *     store("age", age)
+     * }
+     * ```
+     */
+    fun edit(block: Transaction.() -> Unit) {
+        val values = Transaction().apply(block).values
+        if (values.isEmpty()) return
+        synchronized(pendingValues) {
+            if (writeBackScope != null) {
+                pendingValues.putAll(values)
+                hasPendingValues = true
+                scheduleWriteBack()
+                values.keys.forEach(::invalidate)
+                return
+            }
+        }
+        sharedPreferences.edit().putAll(values).apply()
+        values.keys.forEach(::invalidate)
+    }
+
+    /**
+     * Enables the write-back mode. Stores are kept in memory and every store done within
+     * [delayMillis] of the first one is applied with a single [SharedPreferences.Editor] from
+     * the [scope]. Reads see the pending values. Call [flush] to apply them right away, for
+     * example from [android.app.Activity.onPause].
+     * Once the [scope] is cancelled the pending values are applied and every store is applied
+     * right away again.
+     */
+    fun enableWriteBack(scope: CoroutineScope, delayMillis: Long = DEFAULT_WRITE_BACK_DELAY_MILLIS) {
+        synchronized(pendingValues) {
+            writeBackScope = scope
+            writeBackDelayMillis = delayMillis
+        }
+    }
+
+    /** Disables the write-back mode and applies the pending values. */
+    fun disableWriteBack() {
+        synchronized(pendingValues) {
+            writeBackScope = null
+            flush()
+        }
+    }
+
+    /** Applies the values stored in write-back mode with a single [SharedPreferences.Editor]. */
+    fun flush() {
+        synchronized(pendingValues) {
+            writeBackJob?.cancel()
+            writeBackJob = null
+            if (pendingValues.isEmpty()) return
+            // Applied while holding the lock so reads never miss a value between both maps
+            sharedPreferences.edit().putAll(pendingValues).apply()
+            pendingValues.clear()
+            hasPendingValues = false
+        }
+    }
+
+    private fun save(key: String, value: Any) {
+        synchronized(pendingValues) {
+            if (writeBackScope != null) {
+                pendingValues[key] = value
+                hasPendingValues = true
+                scheduleWriteBack()
+                invalidate(key)
+                return
+            }
+        }
+        sharedPreferences.edit().put(key, value).apply()
+        invalidate(key)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> read(key: String, defValue: T, read: () -> T): T {
+        if (hasPendingValues) {
+            synchronized(pendingValues) {
+                pendingValues[key]?.let { return if (it === REMOVED) defValue else it as T }
+            }
+        }
+        return read()
+    }
+
+    /**
+     * Returns the value cached for the [pref] if its key was not written since it was read,
+     * otherwise it reads it again. It's only cached if the entry of its key didn't change
+     * while reading it.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> cached(pref: Pref<T>, read: () -> T): T {
+        val entry = prefValues[pref.key]
+        // Prefs of the same key could have different defaults, so the value is kept by pref
+        if (entry is CachedValue && entry.pref === pref) return entry.value as T
+        changeListenerRegistration.value
+        val value = read()
+        val cachedValue = CachedValue(pref, value)
+        if (entry == null) {
+            prefValues.putIfAbsent(pref.key, cachedValue)
+        } else {
+            prefValues.replace(pref.key, entry, cachedValue)
+        }
+        return value
+    }
+
+    private fun invalidate(key: String) {
+        prefValues[key] = Any()
+    }
+
+    /** Must be called holding the [pendingValues] lock. */
+    private fun scheduleWriteBack() {
+        if (writeBackJob?.isActive == true) return
+        val scope = writeBackScope ?: return
+        if (!scope.isActive) {
+            // A cancelled scope can't launch the write-back, so it falls back to direct stores
+            writeBackScope = null
+            flush()
+            return
+        }
+        writeBackJob = scope.launch {
+            delay(writeBackDelayMillis)
+            flush()
+        }.apply {
+            // Cancelling the scope during the delay skips the flush above
+            invokeOnCompletion { if (!scope.isActive) flush() }
+        }
+    }
+
+    private fun SharedPreferences.Editor.putAll(values: Map<String, Any>): SharedPreferences.Editor {
+        values.forEach { (key, value) -> put(key, value) }
+        return this
+    }
+
+    private fun SharedPreferences.Editor.put(key: String, value: Any): SharedPreferences.Editor = when (value) {
+        REMOVED -> remove(key)
+        is String -> putString(key, value)
+        is Int -> putInt(key, value)
+        is Float -> putFloat(key, value)
+        is Boolean -> putBoolean(key, value)
+        is Long -> putLong(key, value)
+        else -> throw IllegalArgumentException("Unsupported value type: ${value.javaClass}")
+    }
+
+    /** Values to store with a single [SharedPreferences.Editor], see [edit]. */
+    class Transaction internal constructor() {
+
+        internal val values = LinkedHashMap<String, Any>()
+
+        fun store(key: String, value: String?) {
+            values[key] = value ?: REMOVED
+        }
+
+        fun store(key: String, value: Int) {
+            values[key] = value
+        }
+
+        fun store(key: String, value: Float) {
+            values[key] = value
+        }
+
+        fun store(key: String, value: Boolean) {
+            values[key] = value
+        }
+
+        fun store(key: String, value: Long) {
+            values[key] = value
+        }
+
+        fun clearKey(key: String) {
+            values[key] = REMOVED
+        }
+
+        fun store(pref: IntPref, value: Int) = store(pref.key, value)
+
+        fun store(pref: LongPref, value: Long) = store(pref.key, value)
+
+        fun store(pref: FloatPref, value: Float) = store(pref.key, value)
+
+        fun store(pref: BooleanPref, value: Boolean) = store(pref.key, value)
+
+        fun store(pref: StringPref, value: String?) = store(pref.key, value)
+
+        fun clearKey(pref: Pref<*>) = clearKey(pref.key)
+    }
+
+    /** Value read through a [Pref], immutable so it's safely published to other threads. */
+    private class CachedValue(val pref: Pref<*>, val value: Any?)
+
+    companion object {
+        private val REMOVED = Any()
+        private const val DEFAULT_WRITE_BACK_DELAY_MILLIS = 500L
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+
+/**
+ * Logger with a fixed [tag], created with [WolmoLogger.forTag] or [WolmoLogger.forClass].
+ * It's immutable, so it can be kept in a field and used from any thread. It shares the
+ * [WolmoLogger.minLevel] and [WolmoLogger.pipeline], and like it, a call below the level
+ * doesn't evaluate the message.
+ */
+class TaggedLogger internal constructor(val tag: String) {
+
+    inline fun log(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.DEBUG >= WolmoLogger.minLevel) WolmoLogger.write(Log.DEBUG, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    inline fun warn(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.WARN >= WolmoLogger.minLevel) WolmoLogger.write(Log.WARN, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    inline fun info(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.INFO >= WolmoLogger.minLevel) WolmoLogger.write(Log.INFO, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    inline fun verbose(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.VERBOSE >= WolmoLogger.minLevel) WolmoLogger.write(Log.VERBOSE, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    inline fun error(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.ERROR >= WolmoLogger.minLevel) WolmoLogger.write(Log.ERROR, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    inline fun terribleFailure(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.ASSERT >= WolmoLogger.minLevel) WolmoLogger.write(Log.ASSERT, tag, WolmoLogger.messageOf(message), exception)
+    }
+
+    /** Same as [WolmoLogger.event], with this logger [tag]. */
+    inline fun event(level: Int, message: String, exception: Throwable? = null, fields: LogFields.() -> Unit) {
+        if (level >= WolmoLogger.minLevel) {
+            WolmoLogger.write(level, tag, message, exception, LogFields.obtain().apply(fields))
+        }
+    }
+
+    override fun toString() = "TaggedLogger($tag)"
+}
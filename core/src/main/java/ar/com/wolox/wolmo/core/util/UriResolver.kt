@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.ContentResolver
+import android.content.Context
+import android.database.ContentObserver
+import android.database.Cursor
+import android.net.Uri
+import android.provider.MediaStore
+import android.provider.OpenableColumns
+import android.util.LruCache
+import android.webkit.MimeTypeMap
+import androidx.annotation.WorkerThread
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Resolves the physical path, size and mime type of [Uri]s, querying only the needed columns.
+ * Results are kept in a bounded in-memory cache that is invalidated when the content provider
+ * notifies a change through a [ContentObserver].
+ * Uris without a physical path, like the scoped storage ones, get their size from the stream.
+ * File uris are not cached, reading their file is as cheap and they are never stale.
+ * Call [close] once done with a resolver built by hand.
+ */
+@Singleton
+class UriResolver(context: Context, maxEntries: Int) {
+
+    @Inject
+    constructor(@ApplicationContext context: Context) : this(context, DEFAULT_MAX_ENTRIES)
+
+    /** Path, size in bytes and mime type of a [Uri]. Any of them is null if it's unknown. */
+    data class UriInfo(val path: String?, val size: Long?, val mime: String?)
+
+    private val contentResolver = context.applicationContext.contentResolver
+
+    private val cache = LruCache<Uri, UriInfo>(maxEntries)
+
+    /** Changes on every invalidation, so a result resolved meanwhile isn't cached. */
+    private val invalidations = AtomicInteger()
+
+    /** Authorities whose changes are being observed. */
+    private val observedAuthorities = HashSet<String>()
+
+    private val observer = CacheObserver(this, contentResolver)
+
+    /** [CoroutineContext] where [resolve] queries the content providers. */
+    var ioContext: CoroutineContext = Dispatchers.IO
+
+    /** Returns the [UriInfo] of a [uri] without blocking the calling thread. */
+    suspend fun resolve(uri: Uri): UriInfo = cache.get(uri) ?: withContext(ioContext) { resolveBlocking(uri) }
+
+    /** Returns the [UriInfo] of a [uri], querying its content provider if it's not cached. */
+    @WorkerThread
+    fun resolveBlocking(uri: Uri): UriInfo {
+        if (uri.scheme == ContentResolver.SCHEME_FILE) return resolveFile(uri)
+        cache.get(uri)?.let { return it }
+        // Observed before querying, so a change while querying is not missed
+        observe(uri)
+        val invalidation = invalidations.get()
+        val info = resolveContent(uri)
+        synchronized(invalidations) {
+            if (invalidations.get() == invalidation) cache.put(uri, info)
+        }
+        return info
+    }
+
+    /**
+     * Removes the cached [UriInfo] of a [uri] and any uri below it, this is, with the same
+     * scheme and authority whose path segments start with the ones of the [uri].
+     */
+    fun invalidate(uri: Uri) {
+        synchronized(invalidations) {
+            invalidations.incrementAndGet()
+            cache.snapshot().keys.filter { it.isBelow(uri) }.forEach { cache.remove(it) }
+        }
+    }
+
+    /** Removes every cached [UriInfo]. */
+    fun clear() {
+        synchronized(invalidations) {
+            invalidations.incrementAndGet()
+            cache.evictAll()
+        }
+    }
+
+    /**
+     * Stops observing the content providers and removes every cached [UriInfo]. Resolving
+     * another uri starts observing its provider again.
+     */
+    fun close() {
+        synchronized(observedAuthorities) {
+            contentResolver.unregisterContentObserver(observer)
+            observedAuthorities.clear()
+        }
+        clear()
+    }
+
+    private fun resolveFile(uri: Uri): UriInfo {
+        val file = uri.path?.let { File(it) }
+        return UriInfo(file?.absolutePath, file?.takeIf { it.exists() }?.length(), getMimeFromExtension(uri))
+    }
+
+    private fun resolveContent(uri: Uri): UriInfo {
+        var path: String? = null
+        var size: Long? = null
+        var mime: String? = null
+        val cursor = try {
+            contentResolver.query(uri, MEDIA_PROJECTION, null, null, null)
+        } catch (e: IllegalArgumentException) {
+            // Not a media provider, it only knows the openable columns
+            contentResolver.query(uri, OPENABLE_PROJECTION, null, null, null)
+        }
+        cursor?.use {
+            if (it.moveToFirst()) {
+                path = it.getStringOrNull(MediaStore.MediaColumns.DATA)
+                size = it.getStringOrNull(OpenableColumns.SIZE)?.toLongOrNull()
+                mime = it.getStringOrNull(MediaStore.MediaColumns.MIME_TYPE)
+            }
+        }
+        return UriInfo(
+            path,
+            size ?: path?.let { File(it) }?.takeIf { it.exists() }?.length() ?: getSizeFromStream(uri),
+            mime ?: contentResolver.getType(uri) ?: getMimeFromExtension(uri))
+    }
+
+    private fun getSizeFromStream(uri: Uri) = try {
+        contentResolver.openAssetFileDescriptor(uri, READ_MODE)?.use { it.length.takeIf { length -> length >= 0 } }
+    } catch (e: IOException) {
+        null
+    } catch (e: SecurityException) {
+        null
+    }
+
+    private fun getMimeFromExtension(uri: Uri) = MimeTypeMap.getFileExtensionFromUrl(uri.toString())
+        ?.let { MimeTypeMap.getSingleton().getMimeTypeFromExtension(it.lowercase()) }
+
+    private fun observe(uri: Uri) {
+        val authority = uri.authority ?: return
+        synchronized(observedAuthorities) {
+            if (!observedAuthorities.add(authority)) return
+        }
+        val root = Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(authority).build()
+        try {
+            contentResolver.registerContentObserver(root, true, observer)
+        } catch (e: SecurityException) {
+            // Changes of this provider can't be observed, its uris are cached until evicted
+        }
+    }
+
+    private fun Uri.isBelow(parent: Uri): Boolean {
+        val parentSegments = parent.pathSegments
+        return scheme == parent.scheme && authority == parent.authority &&
+            pathSegments.size >= parentSegments.size && pathSegments.subList(0, parentSegments.size) == parentSegments
+    }
+
+    /**
+     * The [ContentResolver] keeps its observers registered, so it only holds a weak reference
+     * to the [UriResolver]. Once the resolver is collected it unregisters itself on the next change.
+     */
+    private class CacheObserver(
+        resolver: UriResolver,
+        private val contentResolver: ContentResolver
+    ) : ContentObserver(null) {
+
+        private val resolver = WeakReference(resolver)
+
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+            val resolver = resolver.get() ?: return contentResolver.unregisterContentObserver(this)
+            if (uri == null) resolver.clear() else resolver.invalidate(uri)
+        }
+    }
+
+    private fun Cursor.getStringOrNull(column: String) =
+        getColumnIndex(column).takeIf { it >= 0 && !isNull(it) }?.let { getString(it) }
+
+    companion object {
+        private const val DEFAULT_MAX_ENTRIES = 100
+        private const val READ_MODE = "r"
+
+        @Suppress("DEPRECATION")
+        private val MEDIA_PROJECTION = arrayOf(
+            MediaStore.MediaColumns.DATA,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE)
+        private val OPENABLE_PROJECTION = arrayOf(OpenableColumns.SIZE)
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.app.Activity
+import android.content.Context
+import androidx.datastore.core.DataMigration
+import androidx.datastore.preferences.SharedPreferencesMigration
+import androidx.datastore.preferences.core.Preferences
+
+/**
+ * Migrates every key of the [android.content.SharedPreferences] file named [name], for example
+ * the one used by [SharedPreferencesManager], into a [Preferences] DataStore.
+ * The migrated values are checked against the original ones before they are written, and
+ * the old file is deleted only once the DataStore saved them. If anything fails the
+ * DataStore is left untouched and the migration runs again the next time it is opened.
+ */
+class VerifiedSharedPreferencesMigration(private val context: Context, private val name: String) :
+    DataMigration<Preferences> {
+
+    private val migration = SharedPreferencesMigration(context, name)
+
+    override suspend fun shouldMigrate(currentData: Preferences) = migration.shouldMigrate(currentData)
+
+    override suspend fun migrate(currentData: Preferences): Preferences {
+        val original = context.getSharedPreferences(name, Activity.MODE_PRIVATE).all
+        val migrated = migration.migrate(currentData)
+        // Keys already in the store are kept, as SharedPreferencesMigration does
+        val existingKeys = currentData.asMap().keys.mapTo(HashSet()) { it.name }
+        verify(original - existingKeys, migrated)
+        logger.info { "Migrated ${original.size} keys from SharedPreferences $name" }
+        return migrated
+    }
+
+    override suspend fun cleanUp() = migration.cleanUp()
+
+    private fun verify(original: Map<String, Any?>, migrated: Preferences) {
+        val migratedValues = migrated.asMap().mapKeys { it.key.name }
+        original.forEach { (key, value) ->
+            if (value != null && migratedValues[key] != value) {
+                throw IllegalStateException("Key $key of SharedPreferences $name was not migrated")
+            }
+        }
+    }
+
+    companion object {
+        private val logger = WolmoLogger.forClass<VerifiedSharedPreferencesMigration>()
+    }
+}
@@ -21,23 +21,51 @@
  */
 package ar.com.wolox.wolmo.core.util
 
+import android.content.ContentProviderOperation
 import android.content.ContentValues
 import android.content.Context
-import android.database.Cursor
+import android.graphics.Bitmap
+import android.graphics.Bitmap.CompressFormat
+import android.media.MediaCodecList
+import android.media.MediaFormat
+import android.media.MediaScannerConnection
 import android.net.Uri
 import android.os.Build
 import android.os.Environment
 import android.provider.MediaStore
 import androidx.core.content.FileProvider
 import ar.com.wolox.wolmo.core.di.scopes.ApplicationScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import java.io.File
 import java.io.IOException
 import javax.inject.Inject
+import kotlin.coroutines.CoroutineContext
 
 /**
  * Utils class for managing [File]s.
+ * The injected one sweeps the app cache folder with the [CacheQuotaManager] when it names
+ * new cache files. The ones built without it don't.
  */
-class WolmoFileProvider @Inject constructor(private val context: Context) {
+class WolmoFileProvider private constructor(
+    private val context: Context,
+    uriResolver: Lazy<UriResolver>,
+    private val cacheQuotaManager: CacheQuotaManager?
+) {
+
+    @Inject
+    constructor(context: Context, uriResolver: UriResolver, cacheQuotaManager: CacheQuotaManager?) :
+        this(context, lazyOf(uriResolver), cacheQuotaManager)
+
+    constructor(context: Context, uriResolver: UriResolver) : this(context, uriResolver, null)
+
+    /**
+     * Builds a provider with its own [UriResolver], created on the first uri resolved. Prefer
+     * the injected provider to share the injected resolver.
+     */
+    constructor(context: Context) : this(context, lazy { UriResolver(context) }, null)
+
+    private val uriResolver by uriResolver
 
     private val appName: String by lazy {
         val applicationInfo = context.applicationInfo
@@ -45,10 +73,28 @@ class WolmoFileProvider @Inject constructor(private val context: Context) {
         if (stringId != 0) context.getString(stringId) else applicationInfo.nonLocalizedLabel?.toString() ?: ""
     }
 
-    private var cacheFolder: String = getTmpDirectory(context).absolutePath
+    /**
+     * The app cache folder is resolved and created on first use instead of on injection,
+     * as it reads resources and touches the disk. See [prepare].
+     */
+    private val cacheDirectory: File by lazy {
+        File(context.cacheDir, appName).apply {
+            if (!exists()) mkdir()
+        }
+    }
+
+    private val cacheFolder: String
+        get() = cacheDirectory.absolutePath
+
+    /** [CoroutineContext] where [prepare] runs. */
+    var ioContext: CoroutineContext = Dispatchers.IO
 
-    private fun getTmpDirectory(context: Context) = File(context.cacheDir, appName).apply {
-        if (!exists()) mkdir()
+    /**
+     * Resolves the app name and creates the app cache folder in the [ioContext], so that
+     * the next calls don't do it in the calling thread. Calling it is optional.
+     */
+    suspend fun prepare() {
+        withContext(ioContext) { cacheDirectory }
     }
 
     private fun getEnvironmentFilename(folder: String, name: String, extension: String, mime: String): String? {
@@ -70,13 +116,18 @@ class WolmoFileProvider @Inject constructor(private val context: Context) {
         }
     }
 
+    /** Returns the app cache folder, where the cache files are stored. */
+    fun getCacheDirectory() = cacheDirectory
+
     /** Returns a new picture filename inside the app cache. */
     fun getNewCachePictureFilename(name: String, imageType: ImageType = ImageType.PNG): String {
+        cacheQuotaManager?.sweepIfNeeded()
         return cacheFolder + FILE_FORMAT.format(name, System.nanoTime(), imageType.extension)
     }
 
     /** Returns a new a video filename inside the app cache. */
     fun getNewCacheVideoFilename(name: String): String {
+        cacheQuotaManager?.sweepIfNeeded()
         return cacheFolder + FILE_FORMAT.format(name, System.nanoTime(), MP4_EXTENSION)
     }
 
@@ -90,6 +141,98 @@ class WolmoFileProvider @Inject constructor(private val context: Context) {
         return getEnvironmentFilename(Environment.DIRECTORY_MOVIES, name, MP4_EXTENSION, MP4_MIME)
     }
 
+    /**
+     * Reserves [count] new pictures inside the DCIM folder and returns their writable [Uri]s.
+     * From API 29 they are inserted in a single batch as pending MediaStore entries, which
+     * are hidden from other apps until they are published with [publishEntries]. Before that,
+     * they are [Uri]s of new files.
+     * The pictures are named [name]_[System.nanoTime()].
+     */
+    fun reserveNewPictures(name: String, count: Int, imageType: ImageType = ImageType.PNG): List<Uri> {
+        return reserveEntries(
+            Environment.DIRECTORY_DCIM,
+            MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+            name,
+            count,
+            imageType.extension,
+            imageType.mime)
+    }
+
+    /**
+     * Reserves [count] new videos inside the Movies folder and returns their writable [Uri]s.
+     * See [reserveNewPictures].
+     */
+    fun reserveNewVideos(name: String, count: Int): List<Uri> {
+        return reserveEntries(
+            Environment.DIRECTORY_MOVIES,
+            MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
+            name,
+            count,
+            MP4_EXTENSION,
+            MP4_MIME)
+    }
+
+    /**
+     * Publishes every one of the [entries] reserved with [reserveNewPictures] or
+     * [reserveNewVideos] once they are written, making them visible to other apps with
+     * a single update. Before API 29 the files are scanned into the MediaStore instead.
+     */
+    fun publishEntries(entries: List<Uri>) {
+        if (entries.isEmpty()) return
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            val operations = entries.mapTo(ArrayList()) {
+                ContentProviderOperation.newUpdate(it).withValue(MediaStore.MediaColumns.IS_PENDING, 0).build()
+            }
+            context.contentResolver.applyBatch(MediaStore.AUTHORITY, operations)
+        } else {
+            val paths = entries.mapNotNull { it.path }.toTypedArray()
+            MediaScannerConnection.scanFile(context, paths, null, null)
+        }
+    }
+
+    /**
+     * Deletes every one of the [entries] reserved with [reserveNewPictures] or
+     * [reserveNewVideos], for example if writing them failed, with a single batch.
+     */
+    fun discardEntries(entries: List<Uri>) {
+        if (entries.isEmpty()) return
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            val operations = entries.mapTo(ArrayList()) { ContentProviderOperation.newDelete(it).build() }
+            context.contentResolver.applyBatch(MediaStore.AUTHORITY, operations)
+        } else {
+            entries.mapNotNull { it.path }.forEach { File(it).delete() }
+        }
+    }
+
+    private fun reserveEntries(
+        folder: String,
+        collection: Uri,
+        name: String,
+        count: Int,
+        extension: String,
+        mime: String
+    ): List<Uri> {
+        val timestamp = System.nanoTime()
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            val operations = (0 until count).mapTo(ArrayList()) { index ->
+                ContentProviderOperation.newInsert(collection)
+                    .withValue(MediaStore.MediaColumns.DISPLAY_NAME, FILENAME_FORMAT.format(name, timestamp + index))
+                    .withValue(MediaStore.MediaColumns.MIME_TYPE, mime)
+                    .withValue(MediaStore.MediaColumns.RELATIVE_PATH, "$folder/$appName")
+                    .withValue(MediaStore.MediaColumns.IS_PENDING, 1)
+                    .build()
+            }
+            context.contentResolver.applyBatch(MediaStore.AUTHORITY, operations).mapNotNull { it.uri }
+        } else {
+            val directory = File(Environment.getExternalStoragePublicDirectory(folder), appName).apply {
+                if (!exists()) mkdirs()
+            }
+            List(count) { index ->
+                Uri.fromFile(File(directory, FILE_FORMAT.format(name, timestamp + index, extension)))
+            }
+        }
+    }
+
     /**
      * Returns a new empty file named [name].[extension]. The given [extension] could
      * end with a dot or not. If not it'll be added.
@@ -113,24 +256,75 @@ class WolmoFileProvider @Inject constructor(private val context: Context) {
         return FileProvider.getUriForFile(context, context.packageName + ".provider", file)
     }
 
-    /** Returns the physical path to a stored File by providing a [uri] of a content provider. */
-    fun getRealPathFromUri(uri: Uri): String? {
-        var cursor: Cursor? = null
-        try {
-            cursor = context.contentResolver.query(uri, null, null, null, null)
-            return cursor?.run {
-                val columnIndex = getColumnIndexOrThrow(MediaStore.Images.Media.DATA)
-                moveToFirst()
-                getString(columnIndex)
-            }
-        } finally {
-            cursor?.close()
-        }
-    }
+    /**
+     * Returns the physical path to a stored File by providing a [uri] of a content provider,
+     * or null if it has none, like the scoped storage ones. It's cached, see [UriResolver].
+     */
+    fun getRealPathFromUri(uri: Uri): String? = uriResolver.resolveBlocking(uri).path
+
+    /**
+     * Returns the path, size and mime type of a [uri] without blocking the calling thread.
+     * It's cached, see [UriResolver].
+     */
+    suspend fun getUriInfo(uri: Uri): UriResolver.UriInfo = uriResolver.resolve(uri)
 
     enum class ImageType(val extension: String, val mime: String) {
         PNG(".png", "image/png"),
-        JPG(".jpg", "image/jpg")
+        JPG(".jpg", "image/jpg"),
+        /** Lossy WEBP. Before API 30 it's encoded with the deprecated [CompressFormat.WEBP]. */
+        WEBP_LOSSY(".webp", "image/webp"),
+        /**
+         * Lossless WEBP. Before API 30 it's encoded with the deprecated [CompressFormat.WEBP] at
+         * max quality, which is only lossless from API 29.
+         */
+        WEBP_LOSSLESS(".webp", "image/webp"),
+        /**
+         * HEIF with HEVC images, or HEIC. It can be decoded from API 28 and encoded from API 28
+         * if there's a HEVC encoder.
+         */
+        HEIF(".heic", "image/heic");
+
+        /** True if this type ignores the compression quality. */
+        val isLossless: Boolean
+            get() = this == PNG || this == WEBP_LOSSLESS
+
+        /** True if images can be encoded as this type in the current device. */
+        val isEncodingSupported: Boolean
+            get() = this != HEIF || hasHevcEncoder
+
+        /** [CompressFormat] to encode bitmaps as this type, or null if [Bitmap.compress] can't. */
+        @Suppress("DEPRECATION")
+        val compressFormat: CompressFormat?
+            get() = when (this) {
+                PNG -> CompressFormat.PNG
+                JPG -> CompressFormat.JPEG
+                WEBP_LOSSY -> if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) CompressFormat.WEBP_LOSSY else CompressFormat.WEBP
+                WEBP_LOSSLESS -> if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) CompressFormat.WEBP_LOSSLESS else CompressFormat.WEBP
+                HEIF -> null
+            }
+
+        companion object {
+
+            /** HEIF images are encoded with a HEVC encoder, which not every device has. */
+            private val hasHevcEncoder by lazy {
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.P &&
+                    MediaCodecList(MediaCodecList.REGULAR_CODECS).codecInfos.any { info ->
+                        info.isEncoder && info.supportedTypes.any {
+                            it.equals(MediaFormat.MIMETYPE_VIDEO_HEVC, ignoreCase = true)
+                        }
+                    }
+            }
+
+            /** Returns the [ImageType] of a [mime] type, or null if it's not supported. */
+            @JvmStatic
+            fun fromMime(mime: String?) = when (mime?.lowercase()) {
+                "image/jpeg", "image/jpg" -> JPG
+                "image/png" -> PNG
+                "image/webp" -> WEBP_LOSSY
+                "image/heif", "image/heic" -> HEIF
+                else -> null
+            }
+        }
     }
 
     companion object {
@@ -1,39 +1,129 @@
 package ar.com.wolox.wolmo.core.util
 
 import android.util.Log
-import ar.com.wolox.wolmo.core.extensions.orElse
-import ar.com.wolox.wolmo.core.extensions.toStringSafely
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Logs to logcat, or to the sinks of its [pipeline] if it has one. Every entry point is inline
+ * and checks the [minLevel] before evaluating the message, so a call below it costs a field
+ * read and allocates nothing.
+ * In release builds, R8 can strip those calls entirely, see the FEATURES guide.
+ *
+ * To log with a tag, keep a [TaggedLogger] from [forTag] or [forClass] instead of setting
+ * the global [tag], which is shared by every thread.
+ */
 object WolmoLogger {
 
-    private const val WOLMO_NAME = "WolmoCoreAndroid"
+    @PublishedApi
+    internal const val WOLMO_NAME = "WolmoCoreAndroid"
+
+    @PublishedApi
+    internal const val EMPTY_INVOKE_STRING = "kotlin.Unit"
+
+    @PublishedApi
+    internal const val NULL_STRING = "null"
+
+    @Deprecated("Shared by every thread, use a logger from forTag or forClass instead.")
     var tag: String? = null
 
+    /**
+     * Minimum [Log] priority of the messages to log, [Log.VERBOSE] by default.
+     * Messages below it are discarded before evaluating them.
+     */
+    @JvmField
+    var minLevel = Log.VERBOSE
+
+    /**
+     * Pipeline the messages are handed to, so they are written in the background. While it's
+     * null, they are written to logcat in the calling thread.
+     */
+    @Volatile
+    var pipeline: AsyncLogPipeline? = null
+
+    private val taggedLoggers = ConcurrentHashMap<String, TaggedLogger>()
+    private val classLoggers = ConcurrentHashMap<Class<*>, TaggedLogger>()
+
+    @Deprecated("Shared by every thread, use a logger from forTag or forClass instead.")
+    @Suppress("DEPRECATION")
     fun resetTag() {
         this.tag = null
     }
 
-    fun log(exception: Throwable? = null, message : () -> Any?) {
-        Log.d(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    /** Returns the logger of the [tag], the same instance on every call. */
+    fun forTag(tag: String): TaggedLogger = taggedLoggers.getOrPut(tag) { TaggedLogger(tag) }
+
+    /** Returns the logger tagged with the simple name of the [clazz], the same instance on every call. */
+    fun forClass(clazz: Class<*>): TaggedLogger = classLoggers.getOrPut(clazz) {
+        forTag(clazz.simpleName.ifEmpty { clazz.name.substringAfterLast('.') })
+    }
+
+    /** Same as [forClass] for the class [T], use it to initialize a field: `WolmoLogger.forClass<MyPresenter>()`. */
+    inline fun <reified T : Any> forClass(): TaggedLogger = forClass(T::class.java)
+
+    /** Returns whether a message of the [Log] priority [level] would be logged. */
+    fun isLoggable(level: Int) = level >= minLevel
+
+    inline fun log(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.DEBUG >= minLevel) write(Log.DEBUG, currentTag, messageOf(message), exception)
     }
 
-    fun warn(exception: Throwable? = null, message : () -> Any?) {
-        Log.w(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    inline fun warn(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.WARN >= minLevel) write(Log.WARN, currentTag, messageOf(message), exception)
     }
 
-    fun info(exception: Throwable? = null, message : () -> Any?) {
-        Log.i(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    inline fun info(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.INFO >= minLevel) write(Log.INFO, currentTag, messageOf(message), exception)
     }
 
-    fun verbose(exception: Throwable? = null, message : () -> Any?) {
-        Log.v(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    inline fun verbose(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.VERBOSE >= minLevel) write(Log.VERBOSE, currentTag, messageOf(message), exception)
     }
 
-    fun error(exception: Throwable? = null, message : () -> Any?) {
-        Log.e(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    inline fun error(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.ERROR >= minLevel) write(Log.ERROR, currentTag, messageOf(message), exception)
     }
 
-    fun terribleFailure(exception: Throwable? = null, message : () -> Any?) {
-        Log.wtf(tag.orElse(WOLMO_NAME), message.toStringSafely(), exception)
+    inline fun terribleFailure(exception: Throwable? = null, message: () -> Any?) {
+        if (Log.ASSERT >= minLevel) write(Log.ASSERT, currentTag, messageOf(message), exception)
+    }
+
+    /**
+     * Logs the [message] at the [Log] priority [level] with the typed key-value fields added
+     * by [fields], for example `WolmoLogger.event(Log.INFO, "Checkout loaded") { long("latencyMs", ms) }`.
+     * The fields are kept unboxed in a pooled object and only formatted by the sinks that
+     * write them, as logfmt by default. Below the [minLevel], [fields] is not evaluated.
+     */
+    inline fun event(level: Int, message: String, exception: Throwable? = null, fields: LogFields.() -> Unit) {
+        if (level >= minLevel) write(level, currentTag, message, exception, LogFields.obtain().apply(fields))
+    }
+
+    @PublishedApi
+    internal fun write(level: Int, tag: String, message: String, exception: Throwable?, fields: LogFields? = null) {
+        val pipeline = pipeline
+        if (pipeline == null && fields == null) {
+            LogcatSink.write(level, tag, message, exception)
+            return
+        }
+        val thread = Thread.currentThread().name
+        val record = LogRecord(level, tag, message, exception, System.currentTimeMillis(), thread, fields)
+        if (pipeline == null) {
+            LogcatSink.write(record)
+            fields?.recycle()
+        } else {
+            pipeline.enqueue(record)
+        }
+    }
+
+    @PublishedApi
+    @Suppress("DEPRECATION")
+    internal val currentTag: String
+        get() = tag ?: WOLMO_NAME
+
+    /** Same as [ar.com.wolox.wolmo.core.extensions.toStringSafely], without allocating the lambda. */
+    @PublishedApi
+    internal inline fun messageOf(message: () -> Any?): String = try {
+        message().toString().let { if (it == EMPTY_INVOKE_STRING) "" else it }
+    } catch (e: Exception) {
+        NULL_STRING
     }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import ar.com.wolox.wolmo.core.tests.TestLogSink
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class AsyncLogPipelineTest {
+
+    private val sink = TestLogSink()
+    private var pipeline: AsyncLogPipeline? = null
+
+    @After
+    fun tearDown() {
+        pipeline?.close()
+    }
+
+    private fun newPipeline(vararg sinks: LogSink, capacity: Int = 16, policy: AsyncLogPipeline.OverflowPolicy) =
+        AsyncLogPipeline(sinks.toList(), capacity, policy, 4).also { pipeline = it }
+
+    private fun record(message: Any) = LogRecord(Log.INFO, "Tag", message.toString(), null, 0, "main")
+
+    @Test
+    fun `given many sinks when flushing then every record is written to each one in order`() {
+        val ringBuffer = RingBufferSink(3)
+        val pipeline = newPipeline(sink, ringBuffer, policy = AsyncLogPipeline.OverflowPolicy.DROP_OLDEST)
+
+        (1..10).forEach { pipeline.enqueue(record(it)) }
+        pipeline.flush()
+
+        assertThat(sink.messages).containsExactlyElementsOf((1..10).map { it.toString() })
+        assertThat(ringBuffer.snapshot().map { it.message }).containsExactly("8", "9", "10")
+        assertThat(pipeline.droppedRecords).isZero()
+    }
+
+    @Test
+    fun `given a stalled sink when the queue overflows dropping the oldest then the newest records are kept`() {
+        val stalledSink = StalledSink()
+        val pipeline = newPipeline(stalledSink, sink, capacity = 4, policy = AsyncLogPipeline.OverflowPolicy.DROP_OLDEST)
+        pipeline.enqueue(record(0))
+        stalledSink.awaitStalled()
+
+        (1..20).forEach { assertThat(pipeline.enqueue(record(it))).isTrue() }
+        stalledSink.resume()
+        pipeline.flush()
+
+        assertThat(sink.messages).containsExactly("0", "17", "18", "19", "20")
+        assertThat(pipeline.droppedRecords).isEqualTo(16)
+    }
+
+    @Test
+    fun `given a stalled sink when the queue overflows sampling then some new records are kept`() {
+        val stalledSink = StalledSink()
+        val pipeline = newPipeline(stalledSink, sink, capacity = 8, policy = AsyncLogPipeline.OverflowPolicy.SAMPLE)
+        pipeline.enqueue(record(0))
+        stalledSink.awaitStalled()
+
+        val queued = (1..100).count { pipeline.enqueue(record(it)) }
+        stalledSink.resume()
+        pipeline.flush()
+
+        assertThat(queued).isEqualTo(8)
+        assertThat(sink.messages.drop(1).take(6)).containsExactly("1", "2", "3", "4", "5", "6")
+        assertThat(pipeline.droppedRecords).isEqualTo(92)
+    }
+
+    @Test
+    fun `given many threads when blocking on overflow then no record is lost`() {
+        val pipeline = newPipeline(sink, capacity = 4, policy = AsyncLogPipeline.OverflowPolicy.BLOCK)
+
+        (0 until PRODUCERS).map { producer ->
+            thread { (0 until RECORDS_PER_PRODUCER).forEach { pipeline.enqueue(record("$producer-$it")) } }
+        }.forEach { it.join() }
+        pipeline.flush()
+
+        assertThat(sink.records).hasSize(PRODUCERS * RECORDS_PER_PRODUCER)
+        assertThat(pipeline.droppedRecords).isZero()
+        // Each producer's records keep their order
+        (0 until PRODUCERS).forEach { producer ->
+            val messages = sink.messages.filter { it.startsWith("$producer-") }
+            assertThat(messages).containsExactlyElementsOf((0 until RECORDS_PER_PRODUCER).map { "$producer-$it" })
+        }
+    }
+
+    @Test
+    fun `given a failing sink when writing then the other sinks still get the records`() {
+        val failingSink = object : LogSink {
+            override fun write(record: LogRecord) {
+                throw IllegalStateException()
+            }
+        }
+        val pipeline = newPipeline(failingSink, sink, policy = AsyncLogPipeline.OverflowPolicy.DROP_OLDEST)
+
+        pipeline.enqueue(record(1))
+        pipeline.enqueue(record(2))
+        pipeline.flush()
+
+        assertThat(sink.messages).containsExactly("1", "2")
+    }
+
+    @Test
+    fun `given queued records when closing then they are written and later ones are dropped`() {
+        var closed = false
+        val closingSink = object : LogSink {
+            override fun write(record: LogRecord) = sink.write(record)
+            override fun close() {
+                closed = true
+            }
+        }
+        val pipeline = newPipeline(closingSink, policy = AsyncLogPipeline.OverflowPolicy.BLOCK)
+
+        (1..5).forEach { pipeline.enqueue(record(it)) }
+        pipeline.close()
+
+        assertThat(sink.messages).containsExactly("1", "2", "3", "4", "5")
+        assertThat(closed).isTrue()
+        assertThat(pipeline.enqueue(record(6))).isFalse()
+        assertThat(pipeline.droppedRecords).isEqualTo(1)
+    }
+
+    @Test
+    fun `given threads logging while closing then every record is either written or dropped`() {
+        val pipeline = newPipeline(sink, capacity = 64, policy = AsyncLogPipeline.OverflowPolicy.DROP_OLDEST)
+        val started = CountDownLatch(PRODUCERS)
+
+        val producers = (0 until PRODUCERS).map { producer ->
+            thread {
+                started.countDown()
+                (0 until RECORDS_PER_PRODUCER).forEach { pipeline.enqueue(record("$producer-$it")) }
+            }
+        }
+        started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        pipeline.close()
+        producers.forEach { it.join() }
+
+        assertThat(sink.records.size + pipeline.droppedRecords).isEqualTo(PRODUCERS * RECORDS_PER_PRODUCER.toLong())
+    }
+
+    @Test
+    fun `given a sink throwing an error when blocking on overflow then the logging threads are not stuck`() {
+        val brokenSink = object : LogSink {
+            override fun write(record: LogRecord) {
+                throw StackOverflowError()
+            }
+        }
+        val pipeline = newPipeline(brokenSink, capacity = 1, policy = AsyncLogPipeline.OverflowPolicy.BLOCK)
+        val writer = Thread.getAllStackTraces().keys.first { it.name == "WolmoLogWriter" }
+        writer.uncaughtExceptionHandler = Thread.UncaughtExceptionHandler { _, _ -> }
+
+        pipeline.enqueue(record(1))
+        writer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS))
+        val queued = (2..5).count { pipeline.enqueue(record(it)) }
+
+        assertThat(queued).isZero()
+        assertThat(pipeline.droppedRecords).isEqualTo(4)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `given no capacity when creating a ring buffer then it fails`() {
+        RingBufferSink(0)
+    }
+
+    /** Sink that stalls the writer on the first record until it's resumed. */
+    private class StalledSink : LogSink {
+
+        private val stalled = CountDownLatch(1)
+        private val resumed = CountDownLatch(1)
+
+        override fun write(record: LogRecord) {
+            stalled.countDown()
+            resumed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        }
+
+        fun awaitStalled() {
+            assertThat(stalled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue()
+        }
+
+        fun resume() = resumed.countDown()
+    }
+
+    companion object {
+        private const val PRODUCERS = 4
+        private const val RECORDS_PER_PRODUCER = 2_000
+        private const val TIMEOUT_SECONDS = 5L
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.os.Build
+import ar.com.wolox.wolmo.core.util.BinaryCodecs.writeVarLong
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [Build.VERSION_CODES.O_MR1])
+class BinaryRecordTest {
+
+    private val record = BinaryRecord.build {
+        set(ID, 42L)
+        set(NAME, "Wolmo")
+        set(ACTIVE, true)
+        set(SCORES, List(50) { it })
+    }
+
+    @Test
+    fun `given a record when encoding and decoding it then every field is kept`() {
+        val decoded = decode(encode(record))
+
+        assertThat(decoded).isEqualTo(record)
+        assertThat(decoded[ID]).isEqualTo(42L)
+        assertThat(decoded[NAME]).isEqualTo("Wolmo")
+        assertThat(decoded[ACTIVE]).isTrue()
+        assertThat(decoded[SCORES]).hasSize(50)
+    }
+
+    @Test
+    fun `given a record when editing it then only the edited fields change`() {
+        val edited = record.edit {
+            set(NAME, "Core")
+            remove(ACTIVE)
+        }
+
+        assertThat(edited[NAME]).isEqualTo("Core")
+        assertThat(ACTIVE in edited).isFalse()
+        assertThat(edited[ACTIVE, false]).isFalse()
+        assertThat(edited[ID]).isEqualTo(42L)
+        assertThat(record[NAME]).isEqualTo("Wolmo")
+    }
+
+    @Test
+    fun `given a record with a broken field when reading other fields then they are decoded`() {
+        val broken = BinaryRecord.build { set(BYTES, ByteArray(2)) }.edit { set(ID, 1L) }
+        val misread = BinaryRecord.Field(BYTES.id, BinaryCodecs.DOUBLE)
+
+        val decoded = decode(encode(broken))
+
+        assertThat(decoded[ID]).isEqualTo(1L)
+        assertThat(runCatching { decoded[misread] }.isFailure).isTrue()
+    }
+
+    @Test
+    fun `given corrupted lengths and counts when decoding them then an io exception is thrown`() {
+        val negative = varLongs(-1)
+        val huge = varLongs(Long.MAX_VALUE)
+        val truncated = varLongs(Int.MAX_VALUE - 8L, 1)
+
+        listOf(negative, huge, truncated).forEach { bytes ->
+            assertThatThrownBy { BinaryCodecs.BYTES.read(input(bytes)) }.isInstanceOf(IOException::class.java)
+            assertThatThrownBy { BinaryCodecs.listOf(BinaryCodecs.INT).read(input(bytes)) }
+                .isInstanceOf(IOException::class.java)
+            assertThatThrownBy { decode(bytes) }.isInstanceOf(IOException::class.java)
+        }
+        assertThatThrownBy { decode(varLongs(1, -1, 0)) }.isInstanceOf(IOException::class.java)
+        assertThatThrownBy { decode(varLongs(1, 1, Int.MAX_VALUE.toLong())) }.isInstanceOf(IOException::class.java)
+    }
+
+    @Test
+    fun `given the same object when encoding it as a record and as json then the record is smaller`() {
+        val json = JSONObject()
+            .put("id", 42L)
+            .put("name", "Wolmo")
+            .put("active", true)
+            .put("scores", JSONArray(List(50) { it }))
+            .toString()
+            .toByteArray()
+
+        assertThat(encode(record).size).isLessThan(json.size)
+    }
+
+    private fun encode(record: BinaryRecord) = ByteArrayOutputStream().also {
+        DataOutputStream(it).use { output -> BinaryRecord.CODEC.write(record, output) }
+    }.toByteArray()
+
+    private fun decode(bytes: ByteArray) = BinaryRecord.CODEC.read(input(bytes))
+
+    private fun input(bytes: ByteArray) = DataInputStream(ByteArrayInputStream(bytes))
+
+    private fun varLongs(vararg values: Long) = ByteArrayOutputStream().also {
+        DataOutputStream(it).use { output -> values.forEach { value -> output.writeVarLong(value) } }
+    }.toByteArray()
+
+    companion object {
+        private val ID = BinaryRecord.Field(1, BinaryCodecs.LONG)
+        private val NAME = BinaryRecord.Field(2, BinaryCodecs.STRING)
+        private val ACTIVE = BinaryRecord.Field(3, BinaryCodecs.BOOLEAN)
+        private val SCORES = BinaryRecord.Field(4, BinaryCodecs.listOf(BinaryCodecs.INT))
+        private val BYTES = BinaryRecord.Field(5, BinaryCodecs.BYTES)
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.graphics.Bitmap
+import android.os.Build
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [Build.VERSION_CODES.O_MR1])
+class BitmapPoolTest {
+
+    @Test
+    fun `given a pooled bitmap when getting a smaller one then it is reused`() {
+        val pool = BitmapPool(MAX_BYTES)
+        val bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        pool.put(bitmap)
+
+        val reused = pool.get(50, 50, Bitmap.Config.ARGB_8888)
+
+        assertThat(reused).isSameAs(bitmap)
+        assertThat(reused!!.width).isEqualTo(50)
+        assertThat(reused.height).isEqualTo(50)
+        assertThat(pool.currentBytes).isEqualTo(0)
+    }
+
+    @Test
+    fun `given a pooled bitmap when getting a bigger or much smaller one then null is returned`() {
+        val pool = BitmapPool(MAX_BYTES)
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888))
+
+        assertThat(pool.get(200, 200, Bitmap.Config.ARGB_8888)).isNull()
+        assertThat(pool.get(10, 10, Bitmap.Config.ARGB_8888)).isNull()
+        assertThat(pool.get(100, 100, Bitmap.Config.RGB_565)).isNull()
+    }
+
+    @Test
+    fun `given a full pool when putting a bitmap then the least recently pooled is recycled`() {
+        val pool = BitmapPool(2 * BITMAP_BYTES)
+        val first = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        val second = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        val third = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+
+        pool.put(first)
+        pool.put(second)
+        pool.put(third)
+
+        assertThat(first.isRecycled).isTrue()
+        assertThat(second.isRecycled).isFalse()
+        assertThat(third.isRecycled).isFalse()
+        assertThat(pool.currentBytes).isEqualTo(2 * BITMAP_BYTES)
+    }
+
+    @Test
+    fun `given an immutable bitmap when putting it then it is recycled`() {
+        val pool = BitmapPool(MAX_BYTES)
+        val bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888).copy(Bitmap.Config.ARGB_8888, false)
+
+        pool.put(bitmap)
+
+        assertThat(bitmap.isRecycled).isTrue()
+        assertThat(pool.currentBytes).isEqualTo(0)
+    }
+
+    @Test
+    fun `given a pool with bitmaps when clearing it then all of them are recycled`() {
+        val pool = BitmapPool(MAX_BYTES)
+        val bitmaps = List(3) { Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888) }
+        bitmaps.forEach { pool.put(it) }
+
+        pool.clear()
+
+        assertThat(bitmaps).allMatch { it.isRecycled }
+        assertThat(pool.currentBytes).isEqualTo(0)
+    }
+
+    companion object {
+        private const val BITMAP_BYTES = 100L * 100 * 4
+        private const val MAX_BYTES = 10 * BITMAP_BYTES
+    }
+}
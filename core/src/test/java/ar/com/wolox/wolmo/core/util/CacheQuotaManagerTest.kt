@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.CoroutineScope
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+class CacheQuotaManagerTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = temporaryFolder.newFolder("app")
+    }
+
+    @Test
+    fun `given expired files when sweeping then only they are deleted`() {
+        val now = System.currentTimeMillis()
+        val expired = newFile("expired", 4, now - TimeUnit.DAYS.toMillis(2))
+        val fresh = newFile("fresh", 4, now)
+        val quotaManager = CacheQuotaManager(directory, 100, TimeUnit.DAYS.toMillis(1))
+
+        val result = quotaManager.sweep()
+
+        assertThat(expired).doesNotExist()
+        assertThat(fresh).exists()
+        assertThat(result).isEqualTo(CacheQuotaManager.SweepResult(2, 1, 4, 4))
+    }
+
+    @Test
+    fun `given files over the quota when sweeping then the oldest are deleted`() {
+        val now = System.currentTimeMillis()
+        val oldest = newFile("oldest", 4, now - 3000)
+        val older = newFile("older", 4, now - 2000)
+        val newest = newFile("newest", 4, now - 1000)
+        val quotaManager = CacheQuotaManager(directory, 5, TimeUnit.DAYS.toMillis(1))
+
+        val result = quotaManager.sweep()
+
+        assertThat(oldest).doesNotExist()
+        assertThat(older).doesNotExist()
+        assertThat(newest).exists()
+        assertThat(result.reclaimedBytes).isEqualTo(8)
+        assertThat(result.remainingBytes).isEqualTo(4)
+        assertThat(quotaManager.totalDeletedFiles).isEqualTo(2)
+    }
+
+    @Test
+    fun `given a sub folder when sweeping then it is left untouched`() {
+        val images = File(directory, "images").apply { mkdirs() }
+        val cached = File(images, "entry").apply { writeBytes(ByteArray(4)) }
+        cached.setLastModified(0)
+        val quotaManager = CacheQuotaManager(directory, 0, 0)
+
+        assertThat(quotaManager.sweep().scannedFiles).isZero()
+        assertThat(cached).exists()
+    }
+
+    @Test
+    fun `given a recent sweep when sweeping if needed then it is skipped`() {
+        val quotaManager = CacheQuotaManager(directory, 100, TimeUnit.DAYS.toMillis(1))
+        val scope = CoroutineScope(Dispatchers.Unconfined)
+        quotaManager.ioContext = Dispatchers.Unconfined
+
+        assertThat(quotaManager.sweepIfNeeded(scope)).isNotNull
+        assertThat(quotaManager.sweepIfNeeded(scope)).isNull()
+        assertThat(quotaManager.lastSweep).isNotNull
+    }
+
+    private fun newFile(name: String, length: Int, lastModified: Long) = File(directory, name).apply {
+        writeBytes(ByteArray(length))
+        setLastModified(lastModified)
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import androidx.datastore.core.DataStore
+import androidx.datastore.preferences.core.PreferenceDataStoreFactory
+import androidx.datastore.preferences.core.Preferences
+import androidx.datastore.preferences.core.edit
+import androidx.datastore.preferences.core.intPreferencesKey
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.onStart
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Counts the collectors and transactions of the underlying store, and the emissions of the
+ * preference flows of a [DataStoreManager] used as a screen with [KEY_COUNT] preferences would.
+ */
+class DataStoreManagerTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private val storeCollectors = AtomicInteger()
+    private val storeUpdates = AtomicInteger()
+    private lateinit var scope: CoroutineScope
+    private lateinit var dataStore: DataStore<Preferences>
+    private lateinit var dataStoreManager: DataStoreManager
+
+    @Before
+    fun setUp() {
+        scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        dataStore = PreferenceDataStoreFactory.create(scope = scope) {
+            File(temporaryFolder.root, "test.preferences_pb")
+        }
+        dataStoreManager = DataStoreManager(CountingDataStore(dataStore), scope) {
+            File(temporaryFolder.root, "$it.bin")
+        }
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun `given many observed preferences when collecting them then the store is collected once`() = runBlocking<Unit> {
+        val values = keys.map { dataStoreManager.observePreference(it, -1).first() }
+
+        assertThat(values).containsOnly(-1)
+        assertThat(storeCollectors.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `given many observed preferences when one changes then only its flow emits`() = runBlocking<Unit> {
+        val emissions = keys.map { Collections.synchronizedList(ArrayList<Int>()) }
+        val collectors = keys.mapIndexed { index, key ->
+            launch(Dispatchers.IO) { dataStoreManager.observePreference(key, -1).collect { emissions[index].add(it) } }
+        }
+        awaitUntil { emissions.all { it.size == 1 } }
+
+        dataStoreManager.savePreference(keys[0], 1)
+        awaitUntil { emissions[0].size == 2 }
+
+        assertThat(emissions[0]).containsExactly(-1, 1)
+        emissions.drop(1).forEach { assertThat(it).containsExactly(-1) }
+        assertThat(storeCollectors.get()).isEqualTo(1)
+        collectors.forEach { it.cancel() }
+    }
+
+    @Test
+    fun `given some stored preferences when reading them in batch then one snapshot is returned`() = runBlocking<Unit> {
+        dataStoreManager.savePreference(keys[0], 0)
+        dataStoreManager.savePreference(keys[1], 1)
+
+        val snapshot = dataStoreManager.getPreferences(listOf(keys[0], keys[1], keys[2]))
+
+        assertThat(snapshot.asMap()).hasSize(2)
+        assertThat(snapshot[keys[0]]).isEqualTo(0)
+        assertThat(snapshot[keys[1]]).isEqualTo(1)
+    }
+
+    @Test
+    fun `given many preferences when saving them together then they are written in one transaction`() = runBlocking<Unit> {
+        dataStoreManager.savePreferences(*keys.mapIndexed { index, key -> key to index }.toTypedArray())
+
+        assertThat(storeUpdates.get()).isEqualTo(1)
+        assertThat(dataStoreManager.getPreferences(keys).asMap()).hasSize(KEY_COUNT)
+    }
+
+    @Test
+    fun `given many enqueued edits when awaiting them then they are written in one transaction`() = runBlocking<Unit> {
+        dataStoreManager.savePreference(keys[0], 0)
+        storeUpdates.set(0)
+
+        val writes = keys.drop(1).mapIndexed { index, key -> dataStoreManager.enqueuePreference(key, index) } +
+            dataStoreManager.enqueueRemoval(keys[0])
+        writes.awaitAll()
+
+        assertThat(storeUpdates.get()).isEqualTo(1)
+        val snapshot = dataStoreManager.getPreferences(keys)
+        assertThat(snapshot[keys[0]]).isNull()
+        assertThat(snapshot.asMap()).hasSize(KEY_COUNT - 1)
+    }
+
+    @Test
+    fun `given an enqueued edit when flushing then it is written without waiting`() = runBlocking<Unit> {
+        dataStoreManager.coalescingWindowMillis = TIMEOUT * 2
+        val write = dataStoreManager.enqueuePreference(keys[0], 1)
+
+        dataStoreManager.flushPendingEdits()
+
+        assertThat(write.isCompleted).isTrue()
+        assertThat(dataStoreManager.getPreferences(keys)[keys[0]]).isEqualTo(1)
+    }
+
+    @Test
+    fun `given an object store when saving a record then it is read back`() = runBlocking<Unit> {
+        val name = BinaryRecord.Field(1, BinaryCodecs.STRING)
+        val store = dataStoreManager.objectStore("profile", BinaryRecord.CODEC)
+
+        store.updateData { it.edit { set(name, "Wolmo") } }
+
+        assertThat(dataStoreManager.objectStore("profile", BinaryRecord.CODEC)).isSameAs(store)
+        assertThat(store.data.first()[name]).isEqualTo("Wolmo")
+        assertThat(File(temporaryFolder.root, "profile.bin")).exists()
+    }
+
+    @Test
+    fun `given a store read error when observing a preference then it is read again`() = runBlocking<Unit> {
+        val failures = AtomicInteger(1)
+        val failingStore = object : DataStore<Preferences> by dataStore {
+            override val data: Flow<Preferences> = dataStore.data.onStart {
+                if (failures.getAndDecrement() > 0) throw IOException("Read error")
+            }
+        }
+        val failingManager = DataStoreManager(failingStore, scope) { File(temporaryFolder.root, "$it.bin") }
+        failingManager.readRetryMillis = POLL_INTERVAL
+        dataStore.edit { it[keys[0]] = 1 }
+
+        val value = withTimeout(TIMEOUT) { failingManager.observePreference(keys[0], -1).first { it == 1 } }
+
+        assertThat(value).isEqualTo(1)
+        assertThat(failures.get()).isNegative()
+    }
+
+    private suspend fun awaitUntil(condition: () -> Boolean) = withTimeout(TIMEOUT) {
+        while (!condition()) delay(POLL_INTERVAL)
+    }
+
+    private inner class CountingDataStore(private val dataStore: DataStore<Preferences>) : DataStore<Preferences> {
+
+        override val data: Flow<Preferences> = dataStore.data.onStart { storeCollectors.incrementAndGet() }
+
+        override suspend fun updateData(transform: suspend (t: Preferences) -> Preferences): Preferences {
+            storeUpdates.incrementAndGet()
+            return dataStore.updateData(transform)
+        }
+    }
+
+    companion object {
+        private const val KEY_COUNT = 15
+        private const val TIMEOUT = 5000L
+        private const val POLL_INTERVAL = 10L
+        private val keys = List(KEY_COUNT) { intPreferencesKey("key$it") }
+    }
+}
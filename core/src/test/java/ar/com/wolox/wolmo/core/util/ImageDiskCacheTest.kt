@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class ImageDiskCacheTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var directory: File
+    private lateinit var imageCache: ImageDiskCache
+
+    @Before
+    fun setUp() {
+        directory = temporaryFolder.newFolder("images")
+        imageCache = ImageDiskCache(directory, 10)
+    }
+
+    @Test
+    fun `given a stored entry when getting it then its bytes are returned`() {
+        imageCache.put("key") { it.write(byteArrayOf(1, 2, 3)); true }
+
+        assertThat(imageCache.getBytes("key")).containsExactly(1, 2, 3)
+        assertThat(imageCache.size).isEqualTo(3)
+    }
+
+    @Test
+    fun `given a failing writer when storing an entry then nothing is stored`() {
+        assertThat(imageCache.put("failed") { it.write(byteArrayOf(1, 2, 3)); false }).isNull()
+        try {
+            imageCache.put("thrown") { it.write(byteArrayOf(1, 2, 3)); throw IOException() }
+        } catch (e: IOException) {
+            // Expected
+        }
+
+        assertThat(imageCache.get("failed")).isNull()
+        assertThat(imageCache.get("thrown")).isNull()
+        assertThat(directory.listFiles()).isEmpty()
+    }
+
+    @Test
+    fun `given a full cache when storing an entry then the least recently used is evicted`() {
+        imageCache.put("first") { it.write(ByteArray(4)); true }
+        imageCache.put("second") { it.write(ByteArray(4)); true }
+        imageCache.get("first")
+        imageCache.put("third") { it.write(ByteArray(4)); true }
+
+        assertThat(imageCache.get("second")).isNull()
+        assertThat(imageCache.get("first")).isNotNull()
+        assertThat(imageCache.get("third")).isNotNull()
+        assertThat(imageCache.size).isEqualTo(8)
+    }
+
+    @Test
+    fun `given stored entries when creating a new cache then they are loaded from disk`() {
+        imageCache.put("key") { it.write(byteArrayOf(1, 2, 3)); true }
+        File(directory, "partial.tmp").writeBytes(byteArrayOf(1))
+
+        val reloadedCache = ImageDiskCache(directory, 10)
+
+        assertThat(reloadedCache.getBytes("key")).containsExactly(1, 2, 3)
+        assertThat(reloadedCache.size).isEqualTo(3)
+        assertThat(File(directory, "partial.tmp")).doesNotExist()
+    }
+
+    @Test
+    fun `given concurrent writes of a key when storing them then the entry has one of them whole`() {
+        val started = CountDownLatch(1)
+        val released = CountDownLatch(1)
+        val slowWrite = thread {
+            imageCache.put("key") {
+                it.write(byteArrayOf(1, 1, 1))
+                started.countDown()
+                released.await()
+                true
+            }
+        }
+        started.await()
+
+        imageCache.put("key") { it.write(byteArrayOf(2, 2)); true }
+        released.countDown()
+        slowWrite.join()
+
+        assertThat(imageCache.getBytes("key")).containsExactly(1, 1, 1)
+        assertThat(imageCache.size).isEqualTo(3)
+        assertThat(directory.list()).containsExactly("key")
+    }
+
+    @Test
+    fun `given different transformations when building keys then they are different`() {
+        val key = ImageDiskCache.keyOf("content://image/1", 100, 200, "JPEG", 80, 50, 50)
+
+        assertThat(key).isEqualTo(ImageDiskCache.keyOf("content://image/1", 100, 200, "JPEG", 80, 50, 50))
+        assertThat(key).isNotEqualTo(ImageDiskCache.keyOf("content://image/1", 100, 200, "JPEG", 70, 50, 50))
+        assertThat(key).isNotEqualTo(ImageDiskCache.keyOf("content://image/1", 100, 300, "JPEG", 80, 50, 50))
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.net.Uri
+import android.os.Build
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [Build.VERSION_CODES.O_MR1])
+class ImageProviderCoroutinesTest {
+
+    private lateinit var context: Context
+    private lateinit var imageProvider: ImageProvider
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        imageProvider = ImageProvider(context, mock(WolmoFileProvider::class.java), BitmapPool())
+    }
+
+    private fun registerImage(id: Int) = Uri.parse("content://media/external/images/$id").also {
+        shadowOf(context.contentResolver).registerInputStream(it, ByteArrayInputStream(byteArrayOf(1, 2, 3)))
+    }
+
+    @Test
+    fun `given an image when compressing it then its bytes are returned`() = runBlocking<Unit> {
+        val image = registerImage(1)
+
+        val bytes = imageProvider.compressImage(image, Bitmap.CompressFormat.JPEG, 80, 50, 50)
+
+        assertThat(bytes).isNotEmpty()
+    }
+
+    @Test
+    fun `given a list of images when compressing them in batch then every result is emitted`() = runBlocking<Unit> {
+        val images = List(5) { registerImage(it) }
+
+        val results = imageProvider.compressImages(images, Bitmap.CompressFormat.JPEG, 80, 50, 50, parallelism = 2).toList()
+
+        assertThat(results.map { it.first }).containsExactlyInAnyOrderElementsOf(images)
+        assertThat(results).allMatch { it.second.isSuccess && it.second.getOrThrow().isNotEmpty() }
+    }
+}
@@ -26,11 +26,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.MediaStore;
 
 import androidx.annotation.NonNull;
+import androidx.exifinterface.media.ExifInterface;
 import androidx.fragment.app.Fragment;
 import androidx.test.core.app.ApplicationProvider;
 
@@ -43,7 +45,11 @@ import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
 import org.robolectric.annotation.RealObject;
 import org.robolectric.shadows.ShadowBitmap;
+import org.robolectric.shadows.ShadowBitmapFactory;
+import org.robolectric.shadows.ShadowContentResolver;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -53,7 +59,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.robolectric.Shadows.shadowOf;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -161,6 +169,24 @@ public class ImageProviderTest {
         assertThat(fitBitmap.getWidth()).isEqualTo(250);
     }
 
+    @Test
+    public void fitBitmapShouldApplyExifOrientation() {
+        Bitmap bitmap = Bitmap.createBitmap(1000, 500, Bitmap.Config.ARGB_8888);
+
+        // Rotated images are fitted as they are shown
+        Bitmap fitBitmap = ImageProvider.fit(bitmap, 500, 500, null, ExifInterface.ORIENTATION_ROTATE_90);
+        assertThat(fitBitmap.getWidth()).isEqualTo(250);
+        assertThat(fitBitmap.getHeight()).isEqualTo(500);
+
+        // Even if they already fit, they are rotated
+        fitBitmap = ImageProvider.fit(bitmap, 0, 0, null, ExifInterface.ORIENTATION_ROTATE_270);
+        assertThat(fitBitmap.getWidth()).isEqualTo(500);
+        assertThat(fitBitmap.getHeight()).isEqualTo(1000);
+
+        fitBitmap = ImageProvider.fit(bitmap, 0, 0, null, ExifInterface.ORIENTATION_NORMAL);
+        assertThat(fitBitmap).isSameAs(bitmap);
+    }
+
     @Test
     public void getImageAsByteArray() {
         Bitmap bitmap = Bitmap.createBitmap(10, 5, Bitmap.Config.ARGB_8888);
@@ -169,6 +195,168 @@ public class ImageProviderTest {
         assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.PNG.toString(), "50");
     }
 
+    @Test
+    public void calculateInSampleSizeShouldKeepImageBiggerThanTarget() {
+        assertThat(ImageProvider.calculateInSampleSize(1000, 500, 1000, 1000)).isEqualTo(1);
+        assertThat(ImageProvider.calculateInSampleSize(1000, 500, 0, 0)).isEqualTo(1);
+        assertThat(ImageProvider.calculateInSampleSize(1000, 500, 600, 600)).isEqualTo(1);
+        assertThat(ImageProvider.calculateInSampleSize(1000, 500, 500, 500)).isEqualTo(2);
+        assertThat(ImageProvider.calculateInSampleSize(500, 1000, 300, 300)).isEqualTo(2);
+        assertThat(ImageProvider.calculateInSampleSize(12000, 9000, 1000, 1000)).isEqualTo(8);
+    }
+
+    @Test
+    public void decodeSampledBitmapShouldNotAllocateFullResolution() {
+        // 108 MP synthetic image, ~432 MB as ARGB_8888 if it was fully decoded
+        ShadowBitmapFactory.provideWidthAndHeightHints("/large.jpg", 12000, 9000);
+
+        Bitmap bitmap = ImageProvider.decodeSampledBitmap("/large.jpg", 1000, 1000);
+
+        assertThat(bitmap.getWidth()).isEqualTo(1500);
+        assertThat(bitmap.getHeight()).isEqualTo(1125);
+        // Never more than 4 times the pixels of the requested box
+        assertThat(bitmap.getByteCount()).isLessThanOrEqualTo(4 * 1000 * 1000 * 4);
+    }
+
+    @Test
+    @Config(shadows = RejectingInBitmapShadowBitmapFactory.class)
+    public void decodeSampledBitmapShouldRetryWhenThePooledBitmapIsRejected() {
+        ShadowBitmapFactory.provideWidthAndHeightHints("/pooled.jpg", 100, 50);
+        BitmapPool pool = new BitmapPool(10 * 1000 * 1000);
+        Bitmap pooled = Bitmap.createBitmap(100, 50, Bitmap.Config.ARGB_8888);
+        pool.put(pooled);
+
+        Bitmap bitmap = ImageProvider.decodeSampledBitmap("/pooled.jpg", 100, 100, pool);
+
+        assertThat(bitmap).isNotSameAs(pooled);
+        assertThat(bitmap.getWidth()).isEqualTo(100);
+        assertThat(pool.getCurrentBytes()).isEqualTo(pooled.getAllocationByteCount());
+    }
+
+    @Test
+    public void writeBitmapShouldCompressIntoStream() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 5, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThat(ImageProvider.writeImage(bitmap, output, Bitmap.CompressFormat.JPEG, 70, 50, 50)).isTrue();
+        assertThat(output.size()).isGreaterThan(0);
+        assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.JPEG.toString(), "70");
+    }
+
+    @Test
+    public void writeImageShouldReadSourceFromContentResolver() {
+        Uri source = Uri.parse("content://media/external/images/1");
+        ShadowContentResolver shadowContentResolver = shadowOf(mContextSpy.getContentResolver());
+        shadowContentResolver.registerInputStream(source, new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThat(mImageProviderSpy.writeImage(source, output, Bitmap.CompressFormat.PNG, 80, 50, 50)).isTrue();
+        assertThat(output.size()).isGreaterThan(0);
+        assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.PNG.toString(), "80");
+        verify(mWolmoFileProviderMock, never()).getRealPathFromUri(any(Uri.class));
+    }
+
+    @Test
+    public void fitWithPoolShouldReusePooledBitmap() {
+        BitmapPool pool = new BitmapPool(10 * 1000 * 1000);
+        Bitmap pooled = Bitmap.createBitmap(500, 250, Bitmap.Config.ARGB_8888);
+        pool.put(pooled);
+
+        Bitmap fitBitmap = ImageProvider.fit(Bitmap.createBitmap(1000, 500, Bitmap.Config.ARGB_8888), 500, 500, pool);
+
+        assertThat(fitBitmap).isSameAs(pooled);
+        assertThat(fitBitmap.getWidth()).isEqualTo(500);
+        assertThat(fitBitmap.getHeight()).isEqualTo(250);
+    }
+
+    @Test
+    public void getCachedImageShouldCompressOnlyOnce() throws IOException {
+        File directory = new File(mContextSpy.getCacheDir(), "imageCacheTest");
+        ImageProvider imageProvider = new ImageProvider(mContextSpy, mWolmoFileProviderMock, new BitmapPool(),
+                new ImageDiskCache(directory, 1024 * 1024));
+        Uri source = Uri.parse("content://media/external/images/1");
+        shadowOf(mContextSpy.getContentResolver())
+                .registerInputStream(source, new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+        File first = imageProvider.getCachedImage(source, Bitmap.CompressFormat.JPEG, 80, 50, 50);
+        sCompressionProperties.clear();
+        File second = imageProvider.getCachedImage(source, Bitmap.CompressFormat.JPEG, 80, 50, 50);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(second.length()).isGreaterThan(0);
+        assertThat(sCompressionProperties).isEmpty();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getCachedImageWithoutCacheShouldFail() throws IOException {
+        mImageProviderSpy.getCachedImage(Uri.parse("content://media/external/images/1"), Bitmap.CompressFormat.JPEG, 80, 50, 50);
+    }
+
+    @Test
+    @Config(shadows = SizedShadowBitmap.class)
+    public void compressToMaxSizeShouldSearchTheHighestQualityThatFits() {
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+
+        ImageProvider.CompressedImage result = ImageProvider.compressToMaxSize(bitmap, Bitmap.CompressFormat.JPEG, 5000);
+
+        assertThat(result.isWithinMaxSize()).isTrue();
+        assertThat(result.getBytes().length).isLessThanOrEqualTo(5000);
+        assertThat(result.getQuality()).isBetween(40, 50);
+        assertThat(result.getWidth()).isEqualTo(100);
+        assertThat(result.getHeight()).isEqualTo(100);
+        // Max quality, min quality and a binary search in between
+        assertThat(result.getAttempts()).isBetween(3, 10);
+    }
+
+    @Test
+    @Config(shadows = SizedShadowBitmap.class)
+    public void compressToMaxSizeShouldScaleDownWhenMinQualityDoesNotFit() {
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+
+        ImageProvider.CompressedImage result = ImageProvider.compressToMaxSize(bitmap, Bitmap.CompressFormat.JPEG, 600);
+
+        assertThat(result.isWithinMaxSize()).isTrue();
+        assertThat(result.getBytes().length).isLessThanOrEqualTo(600);
+        assertThat(result.getWidth()).isLessThan(100);
+        assertThat(bitmap.isRecycled()).isFalse();
+        assertThat(bitmap.getWidth()).isEqualTo(100);
+    }
+
+    @Test
+    @Config(shadows = SizedShadowBitmap.class)
+    public void compressToMaxSizeShouldKeepTheLargestScaleThatFits() {
+        Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+
+        ImageProvider.CompressedImage result = ImageProvider.compressToMaxSize(bitmap, Bitmap.CompressFormat.JPEG, 600);
+
+        // A slightly bigger image doesn't fit even at the min quality
+        Bitmap bigger = Bitmap.createBitmap(result.getWidth() + 2, result.getHeight() + 2, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bigger.compress(Bitmap.CompressFormat.JPEG, ImageProvider.DEFAULT_MIN_QUALITY, output);
+        assertThat(output.size()).isGreaterThan(600);
+    }
+
+    @Test
+    public void compressWithLosslessTypeShouldIgnoreQuality() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 5, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThat(ImageProvider.compress(bitmap, WolmoFileProvider.ImageType.PNG, 50, output)).isTrue();
+        assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.PNG.toString(), "100");
+
+        assertThat(ImageProvider.compress(bitmap, WolmoFileProvider.ImageType.WEBP_LOSSY, 50, output)).isTrue();
+        assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.WEBP.toString(), "50");
+    }
+
+    @Test
+    public void compressWithUnsupportedHeifShouldFallbackToJpeg() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 5, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThat(ImageProvider.compress(bitmap, WolmoFileProvider.ImageType.HEIF, 50, output)).isTrue();
+        assertThat(sCompressionProperties).containsValues(Bitmap.CompressFormat.JPEG.toString(), "50");
+    }
+
     /**
      * Shadow new instances of {@link Intent}
      */
@@ -191,6 +379,22 @@ public class ImageProviderTest {
         }
     }
 
+    /**
+     * Returns null when decoding into a pooled bitmap, like {@link BitmapFactory#decodeFile} does
+     * when the bitmap can't hold the image.
+     */
+    @Implements(BitmapFactory.class)
+    public static class RejectingInBitmapShadowBitmapFactory extends ShadowBitmapFactory {
+
+        @Implementation
+        protected static Bitmap decodeFile(String pathName, BitmapFactory.Options options) {
+            if (options != null && options.inBitmap != null) {
+                return null;
+            }
+            return ShadowBitmapFactory.decodeFile(pathName, options);
+        }
+    }
+
     @Implements(Bitmap.class)
     public static class WolmoShadowBitmap extends ShadowBitmap {
 
@@ -201,4 +405,23 @@ public class ImageProviderTest {
             return super.compress(format, quality, stream);
         }
     }
+
+    /**
+     * Adds a payload that grows with the amount of pixels and the quality to the compressed
+     * bitmaps, so their size depends on both like with a real encoder.
+     */
+    @Implements(Bitmap.class)
+    public static class SizedShadowBitmap extends WolmoShadowBitmap {
+
+        @Override
+        public boolean compress(Bitmap.CompressFormat format, int quality, OutputStream stream) {
+            boolean compressed = super.compress(format, quality, stream);
+            try {
+                stream.write(new byte[getWidth() * getHeight() * quality / 100]);
+            } catch (IOException e) {
+                return false;
+            }
+            return compressed;
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class LogFieldsTest {
+
+    private fun fields() = LogFields.create().apply {
+        string("screen", "checkout")
+        long("latencyMs", 42)
+        double("ratio", 0.5)
+        boolean("cached", true)
+        string("query", "say \"hi\"")
+        string("user", null)
+    }
+
+    @Test
+    fun `given typed fields when appending them as logfmt then strings are quoted only if needed`() {
+        val logfmt = fields().appendLogfmt(StringBuilder("Loaded ")).toString()
+
+        assertThat(logfmt).isEqualTo("Loaded screen=checkout latencyMs=42 ratio=0.5 cached=true query=\"say \\\"hi\\\"\" user=null")
+    }
+
+    @Test
+    fun `given typed fields when appending them as json then they are escaped`() {
+        val json = fields().apply { string("lines", "a\nb\u0001") }.appendJson(StringBuilder()).toString()
+
+        assertThat(json).isEqualTo(
+            "{\"screen\":\"checkout\",\"latencyMs\":42,\"ratio\":0.5,\"cached\":true," +
+                "\"query\":\"say \\\"hi\\\"\",\"user\":null,\"lines\":\"a\\nb\\u0001\"}"
+        )
+    }
+
+    @Test
+    fun `given many fields when reading them then they keep their types`() {
+        val fields = fields().apply { (0 until 20).forEach { int("index$it", it) } }
+
+        assertThat(fields.size).isEqualTo(26)
+        assertThat(fields["latencyMs"]).isEqualTo(42L)
+        assertThat(fields["ratio"]).isEqualTo(0.5)
+        assertThat(fields["cached"]).isEqualTo(true)
+        assertThat(fields["index19"]).isEqualTo(19L)
+        assertThat(fields["missing"]).isNull()
+        assertThat(fields.key(1)).isEqualTo("latencyMs")
+    }
+
+    @Test
+    fun `given pooled fields when recycling them then they are reused empty and copies are kept`() {
+        // Empties the pool, which other tests may have filled
+        repeat(POOL_SIZE) { LogFields.obtain() }
+        val fields = LogFields.obtain().apply { long("latencyMs", 42) }
+        val copy = fields.copy()
+
+        fields.recycle()
+        val reused = LogFields.obtain()
+
+        assertThat(reused).isSameAs(fields)
+        assertThat(reused.size).isZero()
+        assertThat(copy["latencyMs"]).isEqualTo(42L)
+        copy.recycle()
+        assertThat(copy.size).isEqualTo(1)
+    }
+
+    companion object {
+        private const val POOL_SIZE = 64
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class MappedLogSinkTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = temporaryFolder.newFolder("logs")
+    }
+
+    private fun record(message: String, tag: String = "Tag", throwable: Throwable? = null) =
+        LogRecord(Log.WARN, tag, message, throwable, 0, "main")
+
+    private fun exportedMessages() = StringBuilder().also { MappedLogSink.export(directory, it) }
+        .lines().filter { it.contains(": ") }.map { it.substringAfter(": ") }
+
+    @Test
+    fun `given records with many tags when exporting them then they are decoded in order`() {
+        val sink = MappedLogSink(directory)
+
+        sink.write(record("First", "FirstTag"))
+        sink.write(record("Second", "SecondTag"))
+        sink.write(record("Third ñ", "FirstTag"))
+        sink.close()
+
+        val exported = StringBuilder().also { MappedLogSink.export(directory, it) }.lines()
+        assertThat(exported[0]).endsWith(" W/FirstTag: First")
+        assertThat(exported[1]).endsWith(" W/SecondTag: Second")
+        assertThat(exported[2]).endsWith(" W/FirstTag: Third ñ")
+    }
+
+    @Test
+    fun `given a record with an exception when exporting it then its stack trace is included`() {
+        val sink = MappedLogSink(directory)
+
+        sink.write(record("Failure", throwable = IllegalStateException("Broken")))
+        sink.close()
+
+        val exported = StringBuilder().also { MappedLogSink.export(directory, it) }.toString()
+        assertThat(exported).contains("W/Tag: Failure\njava.lang.IllegalStateException: Broken")
+    }
+
+    @Test
+    fun `given a sink that is not closed when exporting then the written records are read`() {
+        val sink = MappedLogSink(directory)
+
+        (0 until 3).forEach { sink.write(record("Record $it")) }
+
+        assertThat(exportedMessages()).containsExactly("Record 0", "Record 1", "Record 2")
+    }
+
+    @Test
+    fun `given full segments when writing then the oldest records are overwritten`() {
+        val sink = MappedLogSink(directory, 1024, 2)
+
+        (0 until 200).forEach { sink.write(record("Record $it")) }
+        sink.close()
+
+        val messages = exportedMessages()
+        assertThat(directory.list()).hasSize(2)
+        assertThat(messages).endsWith("Record 198", "Record 199")
+        assertThat(messages).doesNotContain("Record 0")
+        val first = messages.first().substringAfter(' ').toInt()
+        assertThat(messages).containsExactlyElementsOf((first until 200).map { "Record $it" })
+    }
+
+    @Test
+    fun `given records of a previous sink when writing then they are kept before the new ones`() {
+        MappedLogSink(directory).apply {
+            write(record("Before"))
+            close()
+        }
+
+        MappedLogSink(directory).apply {
+            write(record("After"))
+            close()
+        }
+
+        assertThat(exportedMessages()).containsExactly("Before", "After")
+    }
+
+    @Test
+    fun `given more process starts than segments when writing then the first records are kept`() {
+        (0 until 5).forEach {
+            MappedLogSink(directory, 1024, 2).apply {
+                write(record("Start $it"))
+                close()
+            }
+        }
+
+        assertThat(directory.list()).hasSize(1)
+        assertThat(exportedMessages()).containsExactlyElementsOf((0 until 5).map { "Start $it" })
+    }
+
+    @Test
+    fun `given a segment of a previous sink when writing then its tags are reused`() {
+        MappedLogSink(directory).apply {
+            write(record("Before", "FirstTag"))
+            close()
+        }
+
+        MappedLogSink(directory).apply {
+            write(record("After", "FirstTag"))
+            write(record("New", "SecondTag"))
+            close()
+        }
+
+        val exported = StringBuilder().also { MappedLogSink.export(directory, it) }.lines()
+        assertThat(exported[0]).endsWith(" W/FirstTag: Before")
+        assertThat(exported[1]).endsWith(" W/FirstTag: After")
+        assertThat(exported[2]).endsWith(" W/SecondTag: New")
+    }
+
+    @Test
+    fun `given a message longer than a segment when writing it then it is cut short`() {
+        val sink = MappedLogSink(directory, 1024, 2)
+
+        sink.write(record("a".repeat(2000)))
+        sink.write(record("Next"))
+        sink.close()
+
+        val messages = exportedMessages()
+        assertThat(messages).hasSize(2)
+        assertThat(messages[0]).matches("a+")
+        assertThat(messages[0].length).isLessThan(1024)
+        assertThat(messages[1]).isEqualTo("Next")
+    }
+
+    @Test
+    fun `given written records when exporting them to a file then it has the decoded text`() {
+        val sink = MappedLogSink(directory)
+        sink.write(record("First"))
+        sink.write(record("Second"))
+        sink.close()
+
+        val exported = MappedLogSink.exportToFile(directory)
+        val custom = MappedLogSink.exportToFile(directory, temporaryFolder.newFile("bug-report.txt"))
+
+        assertThat(exported).isEqualTo(File(directory, "logs.txt"))
+        assertThat(exported.readLines().map { it.substringAfter(": ") }).containsExactly("First", "Second")
+        assertThat(custom).hasSameContentAs(exported)
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import androidx.datastore.preferences.core.Preferences
+import androidx.datastore.preferences.core.edit
+import androidx.datastore.preferences.core.intPreferencesKey
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * Each store instance stands for a different process, as they share nothing but the file.
+ * Changes are not watched, [android.os.FileObserver] needs a device.
+ */
+class MultiProcessPreferencesStoreTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.root, "shared.preferences_pb")
+    }
+
+    @Test
+    fun `given two stores of the same file when one writes then the other reads it`() = runBlocking<Unit> {
+        val first = MultiProcessPreferencesStore(file, false)
+        val second = MultiProcessPreferencesStore(file, false)
+
+        first.edit { it[COUNTER] = 1 }
+
+        assertThat(second.data.first()[COUNTER]).isEqualTo(1)
+    }
+
+    @Test
+    fun `given two stores of the same file when both update concurrently then no update is lost`() = runBlocking<Unit> {
+        val stores = List(2) { MultiProcessPreferencesStore(file, false) }
+
+        stores.map { store ->
+            async(Dispatchers.IO) {
+                repeat(UPDATES) { store.edit { it[COUNTER] = (it[COUNTER] ?: 0) + 1 } }
+            }
+        }.awaitAll()
+
+        assertThat(stores[0].data.first()[COUNTER]).isEqualTo(UPDATES * 2)
+    }
+
+    @Test
+    fun `given a collected store when it is updated then the change is emitted`() = runBlocking<Unit> {
+        val store = MultiProcessPreferencesStore(file, false)
+        val values = Channel<Preferences>(Channel.UNLIMITED)
+        val collector = launch(Dispatchers.IO) { store.data.collect { values.send(it) } }
+        assertThat(withTimeout(TIMEOUT) { values.receive() }[COUNTER]).isNull()
+
+        store.edit { it[COUNTER] = 2 }
+
+        assertThat(withTimeout(TIMEOUT) { values.receive() }[COUNTER]).isEqualTo(2)
+        collector.cancel()
+    }
+
+    companion object {
+        private val COUNTER = intPreferencesKey("counter")
+        private const val UPDATES = 50
+        private const val TIMEOUT = 5000L
+    }
+}
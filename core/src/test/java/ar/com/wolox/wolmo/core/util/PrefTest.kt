@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.SharedPreferences
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.RETURNS_SELF
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+class PrefTest {
+
+    private lateinit var sharedPreferences: SharedPreferences
+    private lateinit var sharedPreferencesManager: SharedPreferencesManager
+    private val counter = IntPref("counter", -1)
+
+    @Before
+    fun setUp() {
+        sharedPreferences = mock(SharedPreferences::class.java)
+        val editor = mock(SharedPreferences.Editor::class.java, RETURNS_SELF)
+        `when`(sharedPreferences.edit()).thenReturn(editor)
+        `when`(sharedPreferences.getInt(eq("counter"), anyInt())).thenReturn(1)
+        sharedPreferencesManager = SharedPreferencesManager(sharedPreferences)
+    }
+
+    @Test
+    fun `given a pref when reading it many times then it is read from the preferences once`() {
+        repeat(100) { assertThat(sharedPreferencesManager[counter]).isEqualTo(1) }
+
+        verify(sharedPreferences, times(1)).getInt("counter", -1)
+    }
+
+    @Test
+    fun `given a cached pref when storing it then it is read again`() {
+        assertThat(sharedPreferencesManager[counter]).isEqualTo(1)
+        `when`(sharedPreferences.getInt(eq("counter"), anyInt())).thenReturn(2)
+
+        sharedPreferencesManager.store(counter, 2)
+
+        assertThat(sharedPreferencesManager[counter]).isEqualTo(2)
+    }
+
+    @Test
+    fun `given a cached pref when the preferences change elsewhere then it is read again`() {
+        val listener = ArgumentCaptor.forClass(SharedPreferences.OnSharedPreferenceChangeListener::class.java)
+        assertThat(sharedPreferencesManager[counter]).isEqualTo(1)
+        verify(sharedPreferences).registerOnSharedPreferenceChangeListener(listener.capture())
+        `when`(sharedPreferences.getInt(eq("counter"), anyInt())).thenReturn(3)
+
+        listener.value.onSharedPreferenceChanged(sharedPreferences, "counter")
+
+        assertThat(sharedPreferencesManager[counter]).isEqualTo(3)
+    }
+
+    @Test
+    fun `given two cached prefs when one of them changes then only it is read again`() {
+        val listener = ArgumentCaptor.forClass(SharedPreferences.OnSharedPreferenceChangeListener::class.java)
+        val name = StringPref("name", "default")
+        `when`(sharedPreferences.getString(anyString(), eq("default"))).thenReturn("name")
+        sharedPreferencesManager[counter]
+        sharedPreferencesManager[name]
+        verify(sharedPreferences).registerOnSharedPreferenceChangeListener(listener.capture())
+
+        listener.value.onSharedPreferenceChanged(sharedPreferences, "name")
+        sharedPreferencesManager[counter]
+        sharedPreferencesManager[name]
+
+        verify(sharedPreferences, times(1)).getInt("counter", -1)
+        verify(sharedPreferences, times(2)).getString("name", "default")
+    }
+
+    @Test
+    fun `given a pref shared by two managers when reading it then each one reads its own value`() {
+        val otherPreferences = mock(SharedPreferences::class.java)
+        `when`(otherPreferences.getString(anyString(), eq("default"))).thenReturn("other")
+        val otherManager = SharedPreferencesManager(otherPreferences)
+        val name = StringPref("name", "default")
+        `when`(sharedPreferences.getString(anyString(), eq("default"))).thenReturn("first")
+
+        assertThat(sharedPreferencesManager[name]).isEqualTo("first")
+        assertThat(otherManager[name]).isEqualTo("other")
+        assertThat(sharedPreferencesManager[name]).isEqualTo("first")
+        assertThat(otherManager[name]).isEqualTo("other")
+
+        verify(sharedPreferences, times(1)).getString("name", "default")
+        verify(otherPreferences, times(1)).getString("name", "default")
+    }
+}
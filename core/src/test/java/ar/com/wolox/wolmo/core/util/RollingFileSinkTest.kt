@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.util.Log
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class RollingFileSinkTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private fun record(message: String) = LogRecord(Log.WARN, "Tag", message, null, 0, "main")
+
+    @Test
+    fun `given a few records when writing them then they are appended to the current file`() {
+        val directory = temporaryFolder.newFolder("logs")
+        val sink = RollingFileSink(directory)
+
+        sink.write(record("First"))
+        sink.write(record("Second"))
+        sink.close()
+
+        assertThat(sink.files).hasSize(1)
+        val lines = sink.files[0].readLines()
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0]).endsWith("W/Tag [main]: First")
+        assertThat(lines[1]).endsWith("W/Tag [main]: Second")
+    }
+
+    @Test
+    fun `given a full file when writing then the files are rotated keeping the newest ones`() {
+        val directory = temporaryFolder.newFolder("logs")
+        val lineLength = record("Record 0").format().length.toLong()
+        val sink = RollingFileSink(directory, lineLength * 2, 3)
+
+        (0 until 10).forEach { sink.write(record("Record $it")) }
+        sink.close()
+
+        // The current file is created again on the next write
+        assertThat(sink.files.map { it.name }).containsExactly("wolmo.1.log", "wolmo.2.log")
+        assertThat(sink.files[0].readLines().map { it.substringAfter(": ") }).containsExactly("Record 8", "Record 9")
+        assertThat(sink.files[1].readLines().map { it.substringAfter(": ") }).containsExactly("Record 6", "Record 7")
+    }
+}
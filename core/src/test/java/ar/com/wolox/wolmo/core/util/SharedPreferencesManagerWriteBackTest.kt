@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.SharedPreferences
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.RETURNS_SELF
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+/**
+ * Counts the disk writes, this is the [SharedPreferences.Editor.apply] calls, of a burst of
+ * stores with each one of the [SharedPreferencesManager] write modes.
+ */
+@ExperimentalCoroutinesApi
+class SharedPreferencesManagerWriteBackTest {
+
+    private lateinit var editor: SharedPreferences.Editor
+    private lateinit var sharedPreferences: SharedPreferences
+    private lateinit var sharedPreferencesManager: SharedPreferencesManager
+
+    @Before
+    fun setUp() {
+        editor = mock(SharedPreferences.Editor::class.java, RETURNS_SELF)
+        sharedPreferences = mock(SharedPreferences::class.java)
+        `when`(sharedPreferences.edit()).thenReturn(editor)
+        sharedPreferencesManager = SharedPreferencesManager(sharedPreferences)
+    }
+
+    @Test
+    fun `given a burst of stores when storing them one by one then each one is written`() {
+        storeBurst { key, value -> sharedPreferencesManager.store(key, value) }
+
+        verify(editor, times(BURST_SIZE)).apply()
+    }
+
+    @Test
+    fun `given a burst of stores when storing them in a transaction then they are written once`() {
+        sharedPreferencesManager.edit {
+            storeBurst { key, value -> store(key, value) }
+            clearKey("removed")
+        }
+
+        verify(editor, times(1)).apply()
+        verify(editor, times(BURST_SIZE)).putInt(anyString(), eq(BURST_SIZE))
+        verify(editor, times(1)).remove("removed")
+    }
+
+    @Test
+    fun `given the write back mode when storing a burst then they are written once after the delay`() {
+        val scope = TestScope()
+        sharedPreferencesManager.enableWriteBack(scope, DELAY)
+
+        storeBurst { key, value -> sharedPreferencesManager.store(key, value) }
+        scope.advanceTimeBy(DELAY - 1)
+        scope.runCurrent()
+
+        verify(editor, never()).apply()
+        assertThat(sharedPreferencesManager["key0", 0]).isEqualTo(BURST_SIZE)
+        assertThat(sharedPreferencesManager.keyExists("key0")).isTrue()
+
+        scope.advanceTimeBy(1)
+        scope.runCurrent()
+
+        verify(editor, times(1)).apply()
+        verify(editor, times(BURST_SIZE)).putInt(anyString(), eq(BURST_SIZE))
+    }
+
+    @Test
+    fun `given the write back mode when clearing a key then reads see it removed before the flush`() {
+        sharedPreferencesManager.enableWriteBack(TestScope(), DELAY)
+        `when`(sharedPreferences.getString(eq("key"), anyString())).thenReturn("stored")
+        `when`(sharedPreferences.contains("key")).thenReturn(true)
+
+        sharedPreferencesManager.clearKey("key")
+
+        assertThat(sharedPreferencesManager["key", "default"]).isEqualTo("default")
+        assertThat(sharedPreferencesManager.keyExists("key")).isFalse()
+
+        sharedPreferencesManager.flush()
+
+        verify(editor, times(1)).remove("key")
+        verify(editor, times(1)).apply()
+    }
+
+    @Test
+    fun `given the write back mode when the pending values are flushed then reads go to the preferences`() {
+        sharedPreferencesManager.enableWriteBack(TestScope(), DELAY)
+        sharedPreferencesManager.store("key", 1)
+        sharedPreferencesManager.flush()
+        `when`(sharedPreferences.getInt("key", 0)).thenReturn(2)
+
+        assertThat(sharedPreferencesManager["key", 0]).isEqualTo(2)
+    }
+
+    @Test
+    fun `given the write back mode when its scope is cancelled then stores are written right away`() {
+        val scope = TestScope()
+        sharedPreferencesManager.enableWriteBack(scope, DELAY)
+
+        sharedPreferencesManager.store("pending", 1)
+        scope.cancel()
+        scope.runCurrent()
+
+        verify(editor, times(1)).putInt("pending", 1)
+        verify(editor, times(1)).apply()
+
+        sharedPreferencesManager.store("direct", 2)
+
+        verify(editor, times(1)).putInt("direct", 2)
+        verify(editor, times(2)).apply()
+    }
+
+    private inline fun storeBurst(store: (String, Int) -> Unit) {
+        repeat(BURST_SIZE) { store("key$it", BURST_SIZE) }
+    }
+
+    companion object {
+        private const val BURST_SIZE = 20
+        private const val DELAY = 500L
+    }
+}
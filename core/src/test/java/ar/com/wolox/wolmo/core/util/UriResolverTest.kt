@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.content.ContentResolver
+import android.content.Context
+import android.database.MatrixCursor
+import android.net.Uri
+import android.os.Build
+import android.provider.MediaStore
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.ArgumentMatchers.isNull
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [Build.VERSION_CODES.O_MR1])
+class UriResolverTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var uriResolver: UriResolver
+
+    @Before
+    fun setUp() {
+        contentResolver = mock(ContentResolver::class.java)
+        val context = mock(Context::class.java)
+        `when`(context.applicationContext).thenReturn(context)
+        `when`(context.contentResolver).thenReturn(contentResolver)
+        uriResolver = UriResolver(context, 10)
+    }
+
+    private fun mockQuery(uri: Uri, path: String?, size: Long, mime: String) {
+        @Suppress("DEPRECATION")
+        val columns = arrayOf(MediaStore.MediaColumns.DATA, MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.MIME_TYPE)
+        `when`(contentResolver.query(eq(uri), any(), isNull(), isNull(), isNull())).thenAnswer {
+            MatrixCursor(columns).apply { addRow(arrayOf(path, size, mime)) }
+        }
+    }
+
+    @Test
+    fun `given a content uri when resolving it twice then the provider is queried once`() {
+        val uri = Uri.parse("content://media/external/images/media/1")
+        mockQuery(uri, "/sdcard/DCIM/picture.jpg", 1234, "image/jpeg")
+
+        val first = uriResolver.resolveBlocking(uri)
+        val second = uriResolver.resolveBlocking(uri)
+
+        assertThat(first).isEqualTo(UriResolver.UriInfo("/sdcard/DCIM/picture.jpg", 1234, "image/jpeg"))
+        assertThat(second).isSameAs(first)
+        verify(contentResolver, times(1)).query(eq(uri), any(), isNull(), isNull(), isNull())
+    }
+
+    @Test
+    fun `given a cached uri when it is invalidated then the provider is queried again`() {
+        val uri = Uri.parse("content://media/external/images/media/1")
+        mockQuery(uri, "/sdcard/DCIM/picture.jpg", 1234, "image/jpeg")
+
+        uriResolver.resolveBlocking(uri)
+        uriResolver.invalidate(Uri.parse("content://media/external/images"))
+        uriResolver.resolveBlocking(uri)
+
+        verify(contentResolver, times(2)).query(eq(uri), any(), isNull(), isNull(), isNull())
+    }
+
+    @Test
+    fun `given cached sibling uris when one of them is invalidated then the others are kept`() {
+        val uri = Uri.parse("content://media/external/images/media/1")
+        val sibling = Uri.parse("content://media/external/images/media/10")
+        mockQuery(uri, "/sdcard/DCIM/first.jpg", 1234, "image/jpeg")
+        mockQuery(sibling, "/sdcard/DCIM/tenth.jpg", 1234, "image/jpeg")
+
+        uriResolver.resolveBlocking(uri)
+        uriResolver.resolveBlocking(sibling)
+        uriResolver.invalidate(uri)
+        uriResolver.resolveBlocking(uri)
+        uriResolver.resolveBlocking(sibling)
+
+        verify(contentResolver, times(2)).query(eq(uri), any(), isNull(), isNull(), isNull())
+        verify(contentResolver, times(1)).query(eq(sibling), any(), isNull(), isNull(), isNull())
+    }
+
+    @Test
+    fun `given a content uri when it changes while querying it then the result is not cached`() {
+        val uri = Uri.parse("content://media/external/images/media/1")
+        @Suppress("DEPRECATION")
+        val columns = arrayOf(MediaStore.MediaColumns.DATA, MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.MIME_TYPE)
+        `when`(contentResolver.query(eq(uri), any(), isNull(), isNull(), isNull())).thenAnswer {
+            // The observer is already registered, so the provider notifies this change
+            verify(contentResolver).registerContentObserver(any(), eq(true), any())
+            uriResolver.invalidate(uri)
+            MatrixCursor(columns).apply { addRow(arrayOf("/sdcard/DCIM/picture.jpg", 1234, "image/jpeg")) }
+        }
+
+        uriResolver.resolveBlocking(uri)
+        uriResolver.resolveBlocking(uri)
+
+        verify(contentResolver, times(2)).query(eq(uri), any(), isNull(), isNull(), isNull())
+    }
+
+    @Test
+    fun `given a content uri without path when resolving it then the path is null`() = runBlocking<Unit> {
+        val uri = Uri.parse("content://media/external/images/media/2")
+        mockQuery(uri, null, 1234, "image/png")
+
+        val info = uriResolver.resolve(uri)
+
+        assertThat(info.path).isNull()
+        assertThat(info.size).isEqualTo(1234)
+        assertThat(info.mime).isEqualTo("image/png")
+    }
+
+    @Test
+    fun `given a file uri when resolving it then its path and size are returned`() {
+        val file = temporaryFolder.newFile("picture.png").apply { writeBytes(ByteArray(10)) }
+
+        val info = uriResolver.resolveBlocking(Uri.fromFile(file))
+
+        assertThat(info.path).isEqualTo(file.absolutePath)
+        assertThat(info.size).isEqualTo(10)
+    }
+
+    @Test
+    fun `given a file uri when its file is rewritten then the new size is returned`() {
+        val file = temporaryFolder.newFile("picture.png").apply { writeBytes(ByteArray(10)) }
+        uriResolver.resolveBlocking(Uri.fromFile(file))
+
+        file.writeBytes(ByteArray(20))
+
+        assertThat(uriResolver.resolveBlocking(Uri.fromFile(file)).size).isEqualTo(20)
+    }
+
+    @Test
+    fun `given an observed provider when closing the resolver then it stops observing it`() {
+        val uri = Uri.parse("content://media/external/images/media/1")
+        mockQuery(uri, "/sdcard/DCIM/picture.jpg", 1234, "image/jpeg")
+        uriResolver.resolveBlocking(uri)
+
+        uriResolver.close()
+        uriResolver.resolveBlocking(uri)
+
+        verify(contentResolver).unregisterContentObserver(any())
+        verify(contentResolver, times(2)).registerContentObserver(any(), eq(true), any())
+        verify(contentResolver, times(2)).query(eq(uri), any(), isNull(), isNull(), isNull())
+    }
+}
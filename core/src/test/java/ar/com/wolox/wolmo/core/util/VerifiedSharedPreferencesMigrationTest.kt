@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Wolox S.A
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.core.util
+
+import android.app.Activity
+import android.content.Context
+import android.os.Build
+import androidx.datastore.preferences.core.PreferenceDataStoreFactory
+import androidx.datastore.preferences.core.booleanPreferencesKey
+import androidx.datastore.preferences.core.intPreferencesKey
+import androidx.datastore.preferences.core.stringPreferencesKey
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.job
+import kotlinx.coroutines.runBlocking
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, sdk = [Build.VERSION_CODES.O_MR1])
+class VerifiedSharedPreferencesMigrationTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var context: Context
+    private lateinit var scope: CoroutineScope
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun `given a large preferences file when migrating it then every key is copied and the file deleted`() = runBlocking<Unit> {
+        context.getSharedPreferences(NAME, Activity.MODE_PRIVATE).edit().apply {
+            repeat(KEY_COUNT) {
+                when (it % 3) {
+                    0 -> putInt("key$it", it)
+                    1 -> putString("key$it", "value$it")
+                    else -> putBoolean("key$it", true)
+                }
+            }
+        }.commit()
+
+        val dataStore = PreferenceDataStoreFactory.create(
+            migrations = listOf(VerifiedSharedPreferencesMigration(context, NAME)),
+            scope = scope
+        ) { File(temporaryFolder.root, "migrated.preferences_pb") }
+        val migrated = dataStore.data.first()
+
+        assertThat(migrated.asMap()).hasSize(KEY_COUNT)
+        assertThat(migrated[intPreferencesKey("key0")]).isEqualTo(0)
+        assertThat(migrated[stringPreferencesKey("key${KEY_COUNT - 2}")]).isEqualTo("value${KEY_COUNT - 2}")
+        assertThat(migrated[booleanPreferencesKey("key2")]).isTrue()
+        assertThat(context.getSharedPreferences(NAME, Activity.MODE_PRIVATE).all).isEmpty()
+    }
+
+    @Test
+    fun `given a key already in the store when migrating then the stored value is kept`() = runBlocking<Unit> {
+        context.getSharedPreferences(NAME, Activity.MODE_PRIVATE).edit()
+            .putInt("shared", 1)
+            .putInt("legacy", 2)
+            .commit()
+        val file = File(temporaryFolder.root, "existing.preferences_pb")
+        val existingScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        PreferenceDataStoreFactory.create(scope = existingScope) { file }.apply {
+            updateData { it.toMutablePreferences().apply { set(intPreferencesKey("shared"), 10) } }
+        }
+        // Only one DataStore can be active for a file
+        existingScope.coroutineContext.job.cancelAndJoin()
+
+        val migrated = PreferenceDataStoreFactory.create(
+            migrations = listOf(VerifiedSharedPreferencesMigration(context, NAME)),
+            scope = scope
+        ) { file }.data.first()
+
+        assertThat(migrated[intPreferencesKey("shared")]).isEqualTo(10)
+        assertThat(migrated[intPreferencesKey("legacy")]).isEqualTo(2)
+    }
+
+    companion object {
+        private const val NAME = "legacy"
+        private const val KEY_COUNT = 10_000
+    }
+}
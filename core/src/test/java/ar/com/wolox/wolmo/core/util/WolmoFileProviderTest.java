@@ -22,6 +22,7 @@
 package ar.com.wolox.wolmo.core.util;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
@@ -36,11 +37,20 @@ import org.robolectric.annotation.Implementation;
 import org.robolectric.annotation.Implements;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+
+import kotlinx.coroutines.CoroutineScope;
 
 import ar.com.wolox.wolmo.core.util.WolmoFileProvider;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.LOLLIPOP, shadows = WolmoFileProviderTest.ShadowFileProvider.class)
@@ -81,6 +91,67 @@ public class WolmoFileProviderTest {
         assertThat(mWolmoFileProvider.getRealPathFromUri(Uri.EMPTY)).isNull();
     }
 
+    @Test
+    public void cacheDirectoryShouldBeResolvedOnFirstUse() {
+        verify(mContextSpy, never()).getCacheDir();
+
+        File cacheDirectory = mWolmoFileProvider.getCacheDirectory();
+        mWolmoFileProvider.getNewCachePictureFilename("First", WolmoFileProvider.ImageType.PNG);
+        mWolmoFileProvider.getNewCacheVideoFilename("Second");
+
+        assertThat(cacheDirectory).isDirectory();
+        verify(mContextSpy, times(1)).getCacheDir();
+    }
+
+    @Test
+    public void newCacheFilenamesShouldSweepTheCacheIfNeeded() {
+        CacheQuotaManager quotaManager = mock(CacheQuotaManager.class);
+        WolmoFileProvider wolmoFileProvider = new WolmoFileProvider(mContextSpy, new UriResolver(mContextSpy), quotaManager);
+
+        wolmoFileProvider.getNewCachePictureFilename("First", WolmoFileProvider.ImageType.PNG);
+        wolmoFileProvider.getNewCacheVideoFilename("Second");
+
+        // The default scope is read from the mock, so it's null
+        verify(quotaManager, times(2)).sweepIfNeeded(nullable(CoroutineScope.class), anyLong());
+    }
+
+    @Test
+    public void reserveNewPicturesShouldReturnNewFileUrisBeforeQ() throws IOException {
+        List<Uri> entries = mWolmoFileProvider.reserveNewPictures("Batch", 3, WolmoFileProvider.ImageType.JPG);
+
+        assertThat(entries).hasSize(3).doesNotHaveDuplicates();
+        for (Uri entry : entries) {
+            assertThat(entry.getScheme()).isEqualTo("file");
+            assertThat(entry.getLastPathSegment()).matches("Batch_.*\\.jpg");
+            assertThat(new File(entry.getPath()).createNewFile()).isTrue();
+        }
+
+        mWolmoFileProvider.publishEntries(entries);
+        mWolmoFileProvider.discardEntries(entries);
+
+        for (Uri entry : entries) {
+            assertThat(new File(entry.getPath())).doesNotExist();
+        }
+    }
+
+    @Test
+    public void imageTypesShouldFallbackToLegacyWebpFormat() {
+        assertThat(WolmoFileProvider.ImageType.WEBP_LOSSY.getCompressFormat()).isEqualTo(Bitmap.CompressFormat.WEBP);
+        assertThat(WolmoFileProvider.ImageType.WEBP_LOSSLESS.getCompressFormat()).isEqualTo(Bitmap.CompressFormat.WEBP);
+        assertThat(WolmoFileProvider.ImageType.HEIF.getCompressFormat()).isNull();
+        assertThat(WolmoFileProvider.ImageType.HEIF.isEncodingSupported()).isFalse();
+    }
+
+    @Test
+    public void imageTypesShouldBeFoundByMime() {
+        assertThat(WolmoFileProvider.ImageType.fromMime("image/jpeg")).isEqualTo(WolmoFileProvider.ImageType.JPG);
+        assertThat(WolmoFileProvider.ImageType.fromMime("image/webp")).isEqualTo(WolmoFileProvider.ImageType.WEBP_LOSSY);
+        assertThat(WolmoFileProvider.ImageType.fromMime("image/heic")).isEqualTo(WolmoFileProvider.ImageType.HEIF);
+        assertThat(WolmoFileProvider.ImageType.fromMime("image/heif")).isEqualTo(WolmoFileProvider.ImageType.HEIF);
+        assertThat(WolmoFileProvider.ImageType.HEIF.getMime()).isEqualTo("image/heic");
+        assertThat(WolmoFileProvider.ImageType.fromMime("video/mp4")).isNull();
+    }
+
     @Implements(FileProvider.class)
     public static class ShadowFileProvider {
         static Context sContext;
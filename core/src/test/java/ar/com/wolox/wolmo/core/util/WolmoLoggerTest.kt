@@ -1,6 +1,8 @@
 package ar.com.wolox.wolmo.core.util
 
 import android.os.Build
+import android.util.Log
+import ar.com.wolox.wolmo.core.tests.TestLogSink
 import ar.com.wolox.wolmo.core.util.WolmoLogger.error
 import ar.com.wolox.wolmo.core.util.WolmoLogger.info
 import ar.com.wolox.wolmo.core.util.WolmoLogger.log
@@ -8,6 +10,9 @@ import ar.com.wolox.wolmo.core.util.WolmoLogger.terribleFailure
 import ar.com.wolox.wolmo.core.util.WolmoLogger.verbose
 import ar.com.wolox.wolmo.core.util.WolmoLogger.warn
 import java.io.PrintStream
+import kotlin.concurrent.thread
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -29,6 +34,7 @@ class WolmoLoggerTest {
     @Before
     fun setUp() {
         WolmoLogger.resetTag()
+        WolmoLogger.minLevel = Log.VERBOSE
         printStreamMock = Mockito.mock(PrintStream::class.java)
         ShadowLog.stream = printStreamMock
         exceptionMock = Mockito.mock(Exception::class.java)
@@ -43,6 +49,12 @@ class WolmoLoggerTest {
         )
     }
 
+    @After
+    fun tearDown() {
+        WolmoLogger.pipeline?.close()
+        WolmoLogger.pipeline = null
+    }
+
     @Test
     fun logInDebugLevelShouldCallAndroidLog() {
         log { "First string" }
@@ -102,4 +114,93 @@ class WolmoLoggerTest {
         inOrder.verify(printStreamMock).println(eq("A/WolmoCoreAndroid: First string"))
         inOrder.verify(printStreamMock).println(eq("A/TestTag: Second string"))
     }
+
+    @Test
+    fun logBelowMinLevelShouldNotEvaluateTheMessage() {
+        WolmoLogger.minLevel = Log.WARN
+        var evaluated = false
+        info { evaluated = true; "Info string" }
+        warn { "Warning string" }
+        assertThat(evaluated).isFalse()
+        assertThat(WolmoLogger.isLoggable(Log.INFO)).isFalse()
+        Mockito.verify(printStreamMock, Mockito.never()).println(eq("I/WolmoCoreAndroid: Info string"))
+        Mockito.verify(printStreamMock).println(eq("W/WolmoCoreAndroid: Warning string"))
+    }
+
+    @Test
+    fun logWithPipelineShouldWriteToItsSinksInsteadOfAndroidLog() {
+        val sink = TestLogSink()
+        val pipeline = AsyncLogPipeline(listOf(sink))
+        WolmoLogger.pipeline = pipeline
+        WolmoLogger.tag = "TestTag"
+        info { "First string" }
+        error(exceptionMock) { "Second string" }
+        pipeline.flush()
+        assertThat(sink.records.map { it.level }).containsExactly(Log.INFO, Log.ERROR)
+        assertThat(sink.messages).containsExactly("First string", "Second string")
+        assertThat(sink.records[0].tag).isEqualTo("TestTag")
+        assertThat(sink.records[0].threadName).isEqualTo(Thread.currentThread().name)
+        assertThat(sink.records[1].throwable).isSameAs(exceptionMock)
+        Mockito.verifyZeroInteractions(printStreamMock)
+    }
+
+    @Test
+    fun taggedLoggerShouldBeCachedAndLogWithItsTag() {
+        val logger = WolmoLogger.forTag("TestTag")
+        assertThat(WolmoLogger.forTag("TestTag")).isSameAs(logger)
+        assertThat(WolmoLogger.forClass<WolmoLoggerTest>()).isSameAs(WolmoLogger.forTag("WolmoLoggerTest"))
+        WolmoLogger.tag = "GlobalTag"
+        logger.info { "First string" }
+        WolmoLogger.forClass<WolmoLoggerTest>().warn { "Second string" }
+        val inOrder = Mockito.inOrder(printStreamMock)
+        inOrder.verify(printStreamMock).println(eq("I/TestTag: First string"))
+        inOrder.verify(printStreamMock).println(eq("W/WolmoLoggerTest: Second string"))
+    }
+
+    @Test
+    fun taggedLoggersShouldKeepTheirTagsAcrossThreads() {
+        val sink = TestLogSink()
+        val pipeline = AsyncLogPipeline(listOf(sink), 8 * 1024)
+        WolmoLogger.pipeline = pipeline
+        (0 until 4).map { index ->
+            thread {
+                val logger = WolmoLogger.forTag("Thread$index")
+                repeat(1000) { logger.info { "Thread$index" } }
+            }
+        }.forEach { it.join() }
+        pipeline.flush()
+        assertThat(sink.records).hasSize(4000)
+        assertThat(sink.records).allMatch { it.tag == it.message }
+    }
+
+    @Test
+    fun eventShouldLogItsFieldsAsLogfmt() {
+        WolmoLogger.event(Log.INFO, "Checkout loaded") {
+            string("screen", "checkout")
+            long("latencyMs", 42)
+        }
+        WolmoLogger.forTag("TestTag").event(Log.WARN, "Slow") { boolean("cached", false) }
+        val inOrder = Mockito.inOrder(printStreamMock)
+        inOrder.verify(printStreamMock).println(eq("I/WolmoCoreAndroid: Checkout loaded screen=checkout latencyMs=42"))
+        inOrder.verify(printStreamMock).println(eq("W/TestTag: Slow cached=false"))
+    }
+
+    @Test
+    fun eventBelowMinLevelShouldNotEvaluateTheFields() {
+        WolmoLogger.minLevel = Log.WARN
+        var evaluated = false
+        WolmoLogger.event(Log.INFO, "Checkout loaded") { evaluated = true }
+        assertThat(evaluated).isFalse()
+        Mockito.verifyZeroInteractions(printStreamMock)
+    }
+
+    @Test
+    fun eventWithPipelineShouldKeepItsFieldsInTheSinks() {
+        val sink = TestLogSink()
+        val pipeline = AsyncLogPipeline(listOf(sink))
+        WolmoLogger.pipeline = pipeline
+        repeat(100) { index -> WolmoLogger.event(Log.INFO, "Loaded") { int("index", index) } }
+        pipeline.flush()
+        assertThat(sink.records.map { it.fields!!["index"] }).containsExactlyElementsOf((0L until 100L).toList())
+    }
 }
@@ -18,4 +18,9 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# Strips the WolmoLogger calls below WARN, along with their messages, from release builds.
+# The WolmoLogger.minLevel must never be set below the lower bound of the range.
+#-assumevalues class ar.com.wolox.wolmo.core.util.WolmoLogger {
+#    public static int minLevel return 5..7;
+#}